@@ -13,6 +13,9 @@ import org.bson.types.ObjectId;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 
@@ -26,6 +29,12 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "activities")
+@CompoundIndexes({
+        // Activities of a course
+        @CompoundIndex(name = "idCourse_id", def = "{'idCourse': 1, '_id': 1}"),
+        // Activities completed by a student (multikey)
+        @CompoundIndex(name = "completedBy", def = "{'completedBy': 1}")
+})
 public class Activity {
 
     // TODO add idCourse to existing activities
@@ -52,12 +61,18 @@ public class Activity {
     @JsonSerialize(contentUsing = ToStringSerializer.class)
     private List<ObjectId> completedBy = new ArrayList<>();
 
-    private List<Submission> submissions = new ArrayList<>();
-
     private String openDate;
 
     private String dueDate;
 
+    // Incremented on writes of the editable fields (optimistic locking and If-Match)
+    @Version
+    private Long version;
+
+    // Incremented on writes to the activity details outside the editable fields (completion marks,
+    // submissions, grades): part of the ETag, but an update of the activity does not depend on it
+    private Long detailsVersion;
+
     @CreatedDate
     private LocalDateTime createdDate;
 
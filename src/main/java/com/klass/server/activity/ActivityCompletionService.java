@@ -0,0 +1,60 @@
+package com.klass.server.activity;
+
+import com.klass.server.course.CourseViewService;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+// Completion marks (completedBy) as single atomic updates, without loading the activity
+// Course progress counters move only when the mark really changed completedBy
+@Service
+public class ActivityCompletionService {
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Autowired
+    CourseProgressService courseProgressService;
+
+    @Autowired
+    CourseViewService courseViewService;
+
+    // Add student to completedBy ($addToSet), false if activity does not exist
+    public boolean complete(String activityId, ObjectId studentId) {
+        return update(Criteria.where("_id").is(activityId).and("completedBy").ne(studentId),
+                new Update().addToSet("completedBy", studentId), studentId, 1)
+                || exists(activityId);
+    }
+
+    // Remove student from completedBy ($pull), false if activity does not exist
+    public boolean uncomplete(String activityId, ObjectId studentId) {
+        return update(Criteria.where("_id").is(activityId).and("completedBy").is(studentId),
+                new Update().pull("completedBy", studentId), studentId, -1)
+                || exists(activityId);
+    }
+
+    // Conditional update (matches only if the mark changes anything), true if it was applied
+    private boolean update(Criteria criteria, Update update, ObjectId studentId, int delta) {
+        Query query = Query.query(criteria);
+        query.fields().include("idCourse");
+        Activity changed = mongoTemplate.findAndModify(query,
+                update.currentDate("lastModifiedDate").inc("detailsVersion", 1), Activity.class);
+        if (changed == null) {
+            return false;
+        }
+        courseProgressService.completed(changed.getIdCourse(), studentId, delta);
+        courseViewService.markStale(List.of(new ObjectId(changed.getId())));
+        return true;
+    }
+
+    // Activity exists (_id lookup)
+    public boolean exists(String activityId) {
+        return mongoTemplate.exists(Query.query(Criteria.where("_id").is(activityId)), Activity.class);
+    }
+}
@@ -1,21 +1,45 @@
 package com.klass.server.activity;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.klass.server.common.concurrency.FanOut;
+import com.klass.server.common.streaming.Ndjson;
+import com.klass.server.common.versioning.ETags;
+import com.klass.server.course.CourseViewService;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.result.UpdateResult;
 import com.mongodb.lang.Nullable;
 import jakarta.validation.Valid;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.aggregation.*;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.URI;
-import java.util.LinkedList;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/activities")
@@ -31,74 +55,75 @@ public class ActivityController {
     @Autowired
     MongoTemplate mongoTemplate;
 
-    //=== Lookup aggregations for GET methods ===//
-
-    // Embed completedBy students in activity
-    LookupOperation lookupCompletedBy = LookupOperation.newLookup()
-            .from("users")
-            .localField("completedBy")
-            .foreignField("_id")
-            .as("completedBy");
-
-    // Embed student in submission
-    UnwindOperation unwindSubmissions = Aggregation.unwind("submissions", true);
-
-    LookupOperation lookupSubmissionStudent = LookupOperation.newLookup()
-            .from("users")
-            .localField("submissions.student")
-            .foreignField("_id")
-            .as("submissions.student");
-
-    UnwindOperation unwindSubmissionStudent = Aggregation.unwind("submissions.student", true);
-
-    GroupOperation groupSubmissions = Aggregation.group("_id")
-            .first("type").as("type")
-            .first("name").as("name")
-            .first("content").as("content")
-            .first("enabled").as("enabled")
-            .first("completedBy").as("completedBy")
-            .push("submissions").as("submissions")
-            .first("openDate").as("openDate")
-            .first("dueDate").as("dueDate");
-
-    // All aggregations ordered
-    LinkedList<AggregationOperation> activityAggregations = new LinkedList<>(List.of(
-            // Student in submission
-            unwindSubmissions,
-            lookupSubmissionStudent,
-            unwindSubmissionStudent,
-            groupSubmissions,
-            // CompletedBy students
-            lookupCompletedBy
-    ));
+    @Autowired
+    ActivityPipelines activityPipelines;
+
+    @Autowired
+    ActivityCompletionService activityCompletionService;
+
+    @Autowired
+    CompletionWriteBehind completionWriteBehind;
 
+    @Autowired
+    SubmissionRepository submissionRepository;
+
+    @Autowired
+    CourseProgressService courseProgressService;
+
+    @Autowired
+    CourseViewService courseViewService;
+
+    @Autowired
+    FanOut fanOut;
+
+    @Autowired
+    ObjectMapper objectMapper;
 
     //=== REST methods ===//
 
     // TODO: Activity preview projection
 
-    // Get all activities
+    // Get all activities (ETag from the activity versions, If-None-Match gets 304 without running the pipeline)
     @PreAuthorize("hasRole('ADMIN')")
     @GetMapping
-    public ResponseEntity<List<ActivityProjection>> getAllActivities() {
-        return ResponseEntity.ok(mongoTemplate.aggregate(
-                Aggregation.newAggregation(activityAggregations),
+    @Nullable
+    public ResponseEntity<List<ActivityProjection>> getAllActivities(WebRequest request) {
+        String etag = activitiesEtag();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(etag).body(mongoTemplate.aggregate(
+                activityPipelines.allActivities(),
                 "activities",
                 ActivityProjection.class
         ).getMappedResults());
     }
 
-    // Get activity by id
+    // Get all activities as NDJSON (Accept: application/x-ndjson), streamed from the cursor for large exports
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllActivities() {
+        return Ndjson.response(() -> mongoTemplate.aggregateStream(
+                activityPipelines.allActivities(),
+                "activities",
+                ActivityProjection.class
+        ), objectMapper);
+    }
+
+    // Get activity by id (ETag from the activity versions, If-None-Match gets 304 without running the pipeline)
     @GetMapping("/{activityId}")
     @Nullable
-    public ResponseEntity<ActivityProjection> getActivityById(@PathVariable String activityId) {
-
-        LinkedList<AggregationOperation> aggregationList = activityAggregations;
-        aggregationList.addFirst(Aggregation.match(Criteria.where("_id").is(activityId)));
-
+    public ResponseEntity<ActivityProjection> getActivityById(@PathVariable String activityId, WebRequest request) {
         try {
-            return ResponseEntity.ok(mongoTemplate.aggregate(
-                    Aggregation.newAggregation(aggregationList),
+            String etag = activityEtag(activityId);
+            if (etag == null) {
+                return ResponseEntity.notFound().build();
+            }
+            if (request.checkNotModified(etag)) {
+                return null;
+            }
+            return ResponseEntity.ok().eTag(etag).body(mongoTemplate.aggregate(
+                    activityPipelines.activityById(activityId),
                     "activities",
                     ActivityProjection.class
             ).getUniqueMappedResult());
@@ -111,6 +136,9 @@ public class ActivityController {
     @PreAuthorize("hasRole('ADMIN') || hasRole('INSTRUCTOR')")
     @PostMapping
     public ResponseEntity<Activity> createActivity(@RequestBody @Valid Activity activity, UriComponentsBuilder uriComponentsBuilder) {
+        // Versions are set on insert
+        activity.setVersion(null);
+        activity.setDetailsVersion(null);
         Activity newActivity = activityRepository.save(activity);
         URI url = uriComponentsBuilder.path("/activities/{id}")
                 .buildAndExpand(newActivity.getId())
@@ -121,16 +149,64 @@ public class ActivityController {
     // Update activity
     @PreAuthorize("hasRole('ADMIN') || hasRole('INSTRUCTOR')")
     @PutMapping("/{activityId}")
-    public ResponseEntity<Activity> updateActivity(@PathVariable String activityId, @RequestBody @Valid Activity activity) {
-        activity.setId(activityId);
-        return ResponseEntity.ok(activityRepository.save(activity));
+    // If-Match (ETag of GET /activities/{id}) is required (428 without it) and must hold the current version.
+    // The update is conditional on that version, so a concurrent update gets 412 instead of being overwritten
+    public ResponseEntity<Activity> updateActivity(@PathVariable String activityId, @RequestBody @Valid Activity activity,
+                                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        if (ifMatch == null) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_REQUIRED).build();
+        }
+        Query currentQuery = Query.query(Criteria.where("_id").is(activityId));
+        currentQuery.fields().include("version");
+        Activity current = mongoTemplate.findOne(currentQuery, Activity.class);
+        if (current == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (current.getVersion() == null || !ETags.matchesVersion(ifMatch, current.getVersion())) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        }
+        // Only the editable fields are written: completion marks (they move course progress) and the details
+        // version stay as stored, so a student's mark since the read neither fails nor is lost by the update
+        Activity updated = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(activityId).and("version").is(current.getVersion())),
+                new Update()
+                        .set("idCourse", activity.getIdCourse())
+                        .set("type", activity.getType())
+                        .set("name", activity.getName())
+                        .set("content", activity.getContent())
+                        .set("enabled", activity.isEnabled())
+                        .set("openDate", activity.getOpenDate())
+                        .set("dueDate", activity.getDueDate())
+                        .currentDate("lastModifiedDate")
+                        .inc("version", 1),
+                FindAndModifyOptions.options().returnNew(true),
+                Activity.class
+        );
+        if (updated == null) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        }
+        // Template writes skip repository events
+        courseViewService.refreshForActivity(new ObjectId(activityId));
+        return ResponseEntity.ok(updated);
     }
 
     // Delete activity
     @PreAuthorize("hasRole('ADMIN') || hasRole('INSTRUCTOR')")
     @DeleteMapping("/{activityId}")
     public ResponseEntity deleteActivity(@PathVariable String activityId) {
+        // Completions and submitters of the activity, taken back from course progress after deleting
+        Query activityQuery = Query.query(Criteria.where("_id").is(activityId));
+        activityQuery.fields().include("idCourse", "completedBy");
+        Activity activity = mongoTemplate.findOne(activityQuery, Activity.class);
+        List<ObjectId> submitters = mongoTemplate.findDistinct(
+                Query.query(Criteria.where("activity").is(new ObjectId(activityId))),
+                "student", Submission.class, ObjectId.class);
+
         activityRepository.deleteById(activityId);
+        submissionRepository.deleteByActivity(new ObjectId(activityId));
+        if (activity != null) {
+            courseProgressService.activityRemoved(activity.getIdCourse(), activity.getCompletedBy(), submitters);
+        }
         return ResponseEntity.noContent().build();
     }
 
@@ -140,13 +216,22 @@ public class ActivityController {
     @PreAuthorize("hasRole('ADMIN') || hasRole('INSTRUCTOR')")
     @PutMapping("/{activityId}/availability")
     public ResponseEntity enableActivity(@PathVariable String activityId) {
-        Optional<Activity> activity = activityRepository.findById(activityId);
-        if (activity.isEmpty()) {
+        Query activityQuery = Query.query(Criteria.where("_id").is(activityId));
+        activityQuery.fields().include("enabled", "version");
+        Activity activity = mongoTemplate.findOne(activityQuery, Activity.class);
+        if (activity == null) {
             return ResponseEntity.notFound().build();
         } else {
-            Activity activityToUpdate = activity.get();
-            activityToUpdate.setEnabled(!activityToUpdate.isEnabled());
-            activityRepository.save(activityToUpdate);
+            // Only the flag is written (a save of the read activity would drop completion marks made since),
+            // conditional on the version read: a concurrent toggle gets 412 instead of being undone
+            UpdateResult result = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(activityId).and("version").is(activity.getVersion())),
+                    new Update().set("enabled", !activity.isEnabled()).currentDate("lastModifiedDate").inc("version", 1),
+                    Activity.class);
+            if (result.getMatchedCount() == 0) {
+                return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+            }
+            courseViewService.refreshForActivity(new ObjectId(activityId));
             return ResponseEntity.ok().build();
         }
 
@@ -158,19 +243,14 @@ public class ActivityController {
     @PreAuthorize("hasRole('STUDENT')")
     @PutMapping("/{activityId}/completed/{studentId}")
     public ResponseEntity addStudentToCompletedBy(@PathVariable String activityId, @PathVariable ObjectId studentId) {
-        Optional<Activity> activity = activityRepository.findById(activityId);
-        if (activity.isEmpty()) {
-            return ResponseEntity.notFound().build();
-        } else {
-            Activity activityToUpdate = activity.get();
-            List<ObjectId> completedBy = activityToUpdate.getCompletedBy();
-            // Add if not already in list
-            if (!completedBy.contains(studentId)) {
-                completedBy.add(studentId);
-            }
-            activityToUpdate.setCompletedBy(completedBy);
-            activityRepository.save(activityToUpdate);
+        if (completionWriteBehind.isEnabled()) {
+            return bufferCompletion(activityId, studentId, true);
+        }
+        // Atomic $addToSet (no read-modify-write of the activity)
+        if (activityCompletionService.complete(activityId, studentId)) {
             return ResponseEntity.ok().build();
+        } else {
+            return ResponseEntity.notFound().build();
         }
     }
 
@@ -178,17 +258,29 @@ public class ActivityController {
     @PreAuthorize("hasRole('STUDENT')")
     @DeleteMapping("/{activityId}/completed/{studentId}")
     public ResponseEntity removeStudentFromCompletedBy(@PathVariable String activityId, @PathVariable ObjectId studentId) {
-        Optional<Activity> activity = activityRepository.findById(activityId);
-        if (activity.isEmpty()) {
-            return ResponseEntity.notFound().build();
+        if (completionWriteBehind.isEnabled()) {
+            return bufferCompletion(activityId, studentId, false);
+        }
+        // Atomic $pull
+        if (activityCompletionService.uncomplete(activityId, studentId)) {
+            return ResponseEntity.ok().build();
         } else {
-            Activity activityToUpdate = activity.get();
-            List<ObjectId> completedBy = activityToUpdate.getCompletedBy();
-            completedBy.removeIf(student -> student.equals(studentId));
-            activityToUpdate.setCompletedBy(completedBy);
-            activityRepository.save(activityToUpdate);
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    // Buffered completion mark (written with other marks in one bulkWrite)
+    // The bulkWrite does not report missing activities, so the activity is checked before the mark is accepted
+    private ResponseEntity bufferCompletion(String activityId, ObjectId studentId, boolean completed) {
+        if (!activityCompletionService.exists(activityId)) {
+            return ResponseEntity.notFound().build();
+        }
+        CompletableFuture<Void> written = completionWriteBehind.add(activityId, studentId, completed);
+        if (completionWriteBehind.isSync()) {
+            written.join();
             return ResponseEntity.ok().build();
         }
+        return ResponseEntity.accepted().build();
     }
 
     // TODO Submissions projection
@@ -197,41 +289,147 @@ public class ActivityController {
     @PreAuthorize("hasRole('STUDENT')")
     @PutMapping("/{activityId}/submissions")
     public ResponseEntity addSubmissionToActivity(@PathVariable String activityId, @RequestBody Submission submission) {
-        Optional<Activity> activity = activityRepository.findById(activityId);
-        if (activity.isPresent() && activity.get().getType().equals("assign")) {
-            Activity activityToUpdate = activity.get();
-            List<Submission> submissions = activityToUpdate.getSubmissions();
-            submissions.removeIf(submission1 -> submission1.getStudent().equals(submission.getStudent()));
-            submissions.add(submission);
-            activityToUpdate.setSubmissions(submissions);
-            activityRepository.save(activityToUpdate);
-            // Mark as completed
-            addStudentToCompletedBy(activityId, submission.getStudent());
-            return ResponseEntity.ok().build();
-        } else {
+        // Check activity is an assignment (loading only its course)
+        Query assignment = Query.query(Criteria.where("_id").is(activityId).and("type").is("assign"));
+        assignment.fields().include("idCourse");
+        Activity activity = mongoTemplate.findOne(assignment, Activity.class);
+        if (activity == null) {
             return ResponseEntity.notFound().build();
         }
+        // Insert or replace the student's submission (single small document)
+        UpdateResult result = mongoTemplate.upsert(
+                Query.query(Criteria.where("activity").is(new ObjectId(activityId))
+                        .and("student").is(submission.getStudent())),
+                new Update()
+                        .set("file", submission.getFile())
+                        .set("grade", submission.getGrade())
+                        .setOnInsert("createdDate", LocalDateTime.now())
+                        .currentDate("lastModifiedDate"),
+                Submission.class
+        );
+        // First submission of the student counts in course progress
+        if (result.getUpsertedId() != null) {
+            courseProgressService.submitted(activity.getIdCourse(), submission.getStudent());
+        }
+        // Mark as completed
+        activityCompletionService.complete(activityId, submission.getStudent());
+        // Submissions are part of the activity details (new ETag)
+        incrementDetailsVersion(activityId);
+        return ResponseEntity.ok().build();
+    }
+
+    // Get submissions of an assignment (paginated)
+    @PreAuthorize("hasRole('ADMIN') || hasRole('INSTRUCTOR')")
+    @GetMapping("/{activityId}/submissions")
+    public ResponseEntity<Page<Submission>> getSubmissionsFromActivity(@PathVariable ObjectId activityId, Pageable pageable) {
+        return ResponseEntity.ok(submissionRepository.findByActivity(activityId, pageable));
+    }
+
+    // Grade many submissions in one request (single unordered bulkWrite), returns a result per row
+    @PreAuthorize("hasRole('ADMIN') || hasRole('INSTRUCTOR')")
+    @PatchMapping("/{activityId}/grades")
+    public ResponseEntity<List<GradeResult>> gradeSubmissions(@PathVariable ObjectId activityId,
+                                                              @RequestBody List<GradeEntry> grades) {
+        // Students with a submission (single indexed query), read while checking the activity exists
+        Query submitted = Query.query(Criteria.where("activity").is(activityId)
+                .and("student").in(grades.stream().map(GradeEntry::student).toList()));
+        submitted.fields().include("student");
+        Set<ObjectId> students = fanOut.both(
+                () -> mongoTemplate.exists(Query.query(Criteria.where("_id").is(activityId)), Activity.class),
+                () -> mongoTemplate.find(submitted, Submission.class).stream()
+                        .map(Submission::getStudent)
+                        .collect(Collectors.toSet()),
+                (exists, found) -> exists ? found : null);
+        if (students == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        // Row results, in request order
+        GradeResult[] results = new GradeResult[grades.size()];
+        // Bulk operation index -> request row
+        List<Integer> rows = new ArrayList<>();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Submission.class);
+        for (int i = 0; i < grades.size(); i++) {
+            GradeEntry entry = grades.get(i);
+            if (!students.contains(entry.student())) {
+                results[i] = new GradeResult(entry.student(), "not_found", "No submission for student");
+                continue;
+            }
+            bulk.updateOne(
+                    Query.query(Criteria.where("activity").is(activityId).and("student").is(entry.student())),
+                    new Update().set("grade", entry.grade()).currentDate("lastModifiedDate")
+            );
+            rows.add(i);
+            results[i] = new GradeResult(entry.student(), "updated", null);
+        }
+
+        if (!rows.isEmpty()) {
+            try {
+                bulk.execute();
+            } catch (BulkOperationException e) {
+                // Unordered: other rows were still applied
+                for (BulkWriteError error : e.getErrors()) {
+                    int row = rows.get(error.getIndex());
+                    results[row] = new GradeResult(grades.get(row).student(), "error", error.getMessage());
+                }
+            }
+            // Grades are part of the activity details (new ETag)
+            incrementDetailsVersion(activityId);
+        }
+        return ResponseEntity.ok(List.of(results));
     }
 
     // Read submission from assignment
     @GetMapping("/{activityId}/submissions/{studentId}")
     @Nullable
-    public ResponseEntity<Submission> getSubmissionFromActivity(@PathVariable String activityId, @PathVariable ObjectId studentId) {
-        Optional<Activity> activity = activityRepository.findById(activityId);
-        if (activity.isEmpty()) {
-            return ResponseEntity.notFound().build();
-        } else {
-            Activity activityToRead = activity.get();
-            List<Submission> submissions = activityToRead.getSubmissions();
+    public ResponseEntity<Submission> getSubmissionFromActivity(@PathVariable ObjectId activityId, @PathVariable ObjectId studentId) {
+        return submissionRepository.findByActivityAndStudent(activityId, studentId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 
-            // Return submission searching student
-            return submissions.stream()
-                    .filter(submission -> submission.getStudent().equals(studentId))
-                    .findFirst()
-                    .map(ResponseEntity::ok)
-                    .orElse(ResponseEntity.notFound().build());
+    // "<version>.<detailsVersion>", only these two fields are read (no pipeline, no user reads): user writes
+    // (names, pictures of completedBy and submission students) do not change the tag
+    // Null if the activity does not exist
+    @Nullable
+    private String activityEtag(String activityId) {
+        Query query = Query.query(Criteria.where("_id").is(activityId));
+        query.fields().include("version", "detailsVersion");
+        Activity activity = mongoTemplate.findOne(query, Activity.class);
+        if (activity == null || activity.getVersion() == null) {
+            return null;
         }
+        long details = activity.getDetailsVersion() == null ? 0 : activity.getDetailsVersion();
+        return ETags.of(activity.getVersion() + "." + details);
+    }
+
+    // "<count>.<versions>.<detailsVersions>.<lastModified>" of all activities, from one $group (no $lookup)
+    // Inserts, updates and deletes change it, user writes do not (as for a single activity)
+    private String activitiesEtag() {
+        Document totals = mongoTemplate.aggregate(
+                Aggregation.newAggregation(
+                        Aggregation.group().count().as("count")
+                                .sum("version").as("versions")
+                                .sum("detailsVersion").as("details")
+                                .max("lastModifiedDate").as("lastModified")
+                ),
+                "activities",
+                Document.class
+        ).getUniqueMappedResult();
+        if (totals == null) {
+            return ETags.of("0");
+        }
+        Date lastModified = totals.getDate("lastModified");
+        return ETags.of(totals.get("count") + "." + totals.get("versions") + "." + totals.get("details")
+                + "." + (lastModified == null ? 0 : lastModified.getTime()));
+    }
 
+    // New details version for writes outside the activity document that change its details
+    // (course views embedding the activity are marked stale, these writes skip repository events)
+    private void incrementDetailsVersion(Object activityId) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(activityId)),
+                new Update().inc("detailsVersion", 1), Activity.class);
+        courseViewService.markStale(List.of(new ObjectId(activityId.toString())));
     }
 
 }
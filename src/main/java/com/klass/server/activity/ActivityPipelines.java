@@ -0,0 +1,74 @@
+package com.klass.server.activity;
+
+import com.klass.server.common.aggregation.PipelineTemplate;
+import org.springframework.data.mongodb.core.aggregation.*;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+// Activity aggregation pipelines, built once at startup and shared by all requests
+@Component
+public class ActivityPipelines {
+
+    //=== Lookup aggregations for GET methods ===//
+
+    // Embed completedBy students in activity
+    private final LookupOperation lookupCompletedBy = LookupOperation.newLookup()
+            .from("users")
+            .localField("completedBy")
+            .foreignField("_id")
+            .as("completedBy");
+
+    // Embed submissions (submissions collection)
+    private final LookupOperation lookupSubmissions = LookupOperation.newLookup()
+            .from("submissions")
+            .localField("_id")
+            .foreignField("activity")
+            .as("submissions");
+
+    // Embed student in submission
+    private final UnwindOperation unwindSubmissions = Aggregation.unwind("submissions", true);
+
+    private final LookupOperation lookupSubmissionStudent = LookupOperation.newLookup()
+            .from("users")
+            .localField("submissions.student")
+            .foreignField("_id")
+            .as("submissions.student");
+
+    private final UnwindOperation unwindSubmissionStudent = Aggregation.unwind("submissions.student", true);
+
+    private final GroupOperation groupSubmissions = Aggregation.group("_id")
+            .first("type").as("type")
+            .first("name").as("name")
+            .first("content").as("content")
+            .first("enabled").as("enabled")
+            .first("completedBy").as("completedBy")
+            .push("submissions").as("submissions")
+            .first("openDate").as("openDate")
+            .first("dueDate").as("dueDate");
+
+    // All aggregations ordered
+    private final PipelineTemplate details = new PipelineTemplate(
+            // Submissions and their students
+            lookupSubmissions,
+            unwindSubmissions,
+            lookupSubmissionStudent,
+            unwindSubmissionStudent,
+            groupSubmissions,
+            // CompletedBy students
+            lookupCompletedBy
+    );
+
+    // All activities
+    public Aggregation allActivities() {
+        return details.unbound();
+    }
+
+    // Single activity
+    public Aggregation activityById(String activityId) {
+        return details.bind(Criteria.where("_id").is(activityId));
+    }
+
+    public PipelineTemplate details() {
+        return details;
+    }
+}
@@ -0,0 +1,326 @@
+package com.klass.server.activity;
+
+import com.klass.server.course.CourseViewService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Optional write-behind buffer for completion marks
+// Marks are coalesced per activity (last mark of each student wins) and written as one unordered
+// bulkWrite every flush interval, or as soon as the buffer holds max-batch marks
+//  - sync: request waits until its batch is written (group commit)
+//  - async: request returns immediately, marks are written on the next flush (lost if the process dies)
+// A failed write puts the batch back in the buffer and is retried with backoff, up to max-retries times
+@Component
+public class CompletionWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(CompletionWriteBehind.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final CourseProgressService courseProgressService;
+
+    private final CourseViewService courseViewService;
+
+    private final boolean enabled;
+
+    private final boolean sync;
+
+    private final int maxBatch;
+
+    private final int maxRetries;
+
+    private final Duration flushInterval;
+
+    // Consecutive failed writes and earliest next attempt (guarded by flushLock)
+    private int failures = 0;
+
+    private long retryAt = 0;
+
+    // Pending marks: activity -> (student -> completed)
+    private Map<String, Map<ObjectId, Boolean>> pending = new HashMap<>();
+
+    // Requests waiting for pending marks to be written
+    private List<CompletableFuture<Void>> waiters = new ArrayList<>();
+
+    private int depth = 0;
+
+    private final Object bufferLock = new Object();
+
+    private final Object flushLock = new Object();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final ScheduledExecutorService scheduler;
+
+    private final DistributionSummary batchSize;
+
+    private final Timer flushLatency;
+
+    public CompletionWriteBehind(MongoTemplate mongoTemplate,
+                                 CourseProgressService courseProgressService,
+                                 CourseViewService courseViewService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${activities.completion.write-behind.enabled:false}") boolean enabled,
+                                 @Value("${activities.completion.write-behind.durability:sync}") String durability,
+                                 @Value("${activities.completion.write-behind.flush-interval:5ms}") Duration flushInterval,
+                                 @Value("${activities.completion.write-behind.max-batch:500}") int maxBatch,
+                                 @Value("${activities.completion.write-behind.max-retries:5}") int maxRetries) {
+        this.mongoTemplate = mongoTemplate;
+        this.courseProgressService = courseProgressService;
+        this.courseViewService = courseViewService;
+        this.enabled = enabled;
+        this.sync = !durability.equals("async");
+        this.maxBatch = maxBatch;
+        this.maxRetries = maxRetries;
+        this.flushInterval = flushInterval;
+
+        Gauge.builder("activities.completion.buffer.depth", this, CompletionWriteBehind::depth)
+                .description("Completion marks waiting to be written")
+                .register(meterRegistry);
+        batchSize = DistributionSummary.builder("activities.completion.batch.size")
+                .description("Completion marks written per flush")
+                .register(meterRegistry);
+        flushLatency = Timer.builder("activities.completion.flush")
+                .description("Time to write a batch of completion marks")
+                .register(meterRegistry);
+
+        if (enabled) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "completion-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::flushQuietly,
+                    flushInterval.toNanos(), flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    // Buffer a mark, future completes when it has been written
+    public CompletableFuture<Void> add(String activityId, ObjectId studentId, boolean completed) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        boolean full;
+        synchronized (bufferLock) {
+            Boolean previous = pending.computeIfAbsent(activityId, id -> new HashMap<>())
+                    .put(studentId, completed);
+            if (previous == null) {
+                depth++;
+            }
+            waiters.add(written);
+            full = depth >= maxBatch;
+        }
+        // Disabled or shut down: nothing is scheduled, write on the caller
+        if (scheduler == null || scheduler.isShutdown()) {
+            flushNow();
+            return written;
+        }
+        // Flush early when batch is full (once, not for every mark)
+        if (full && flushRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // Shut down since the check above
+                flushNow();
+            }
+        }
+        return written;
+    }
+
+    // Write all pending marks in one bulkWrite
+    public void flush() {
+        flush(false);
+    }
+
+    // force: write even while backing off after a failure (shutdown)
+    private void flush(boolean force) {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            if (!force && System.nanoTime() < retryAt) {
+                return;
+            }
+
+            Map<String, Map<ObjectId, Boolean>> batch;
+            List<CompletableFuture<Void>> batchWaiters;
+            int marks;
+            synchronized (bufferLock) {
+                if (waiters.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                batchWaiters = waiters;
+                marks = depth;
+                pending = new HashMap<>();
+                waiters = new ArrayList<>();
+                depth = 0;
+            }
+
+            try {
+                flushLatency.record(() -> write(batch));
+                batchSize.record(marks);
+                failures = 0;
+                retryAt = 0;
+                batchWaiters.forEach(waiter -> waiter.complete(null));
+            } catch (RuntimeException e) {
+                failures++;
+                if (failures > maxRetries) {
+                    failures = 0;
+                    retryAt = 0;
+                    batchWaiters.forEach(waiter -> waiter.completeExceptionally(e));
+                    throw e;
+                }
+                requeue(batch, batchWaiters);
+                // Exponential backoff from the flush interval, at most 1s between attempts
+                long delay = Math.min(flushInterval.toNanos() << Math.min(failures, 20), TimeUnit.SECONDS.toNanos(1));
+                retryAt = System.nanoTime() + delay;
+                log.warn("Failed to write {} completion marks (attempt {} of {}), retrying",
+                        marks, failures, maxRetries + 1, e);
+            }
+        }
+    }
+
+    // Put a failed batch back in the buffer (marks buffered since are newer and win)
+    private void requeue(Map<String, Map<ObjectId, Boolean>> batch, List<CompletableFuture<Void>> batchWaiters) {
+        synchronized (bufferLock) {
+            batch.forEach((activityId, marks) -> {
+                Map<ObjectId, Boolean> buffered = pending.computeIfAbsent(activityId, id -> new HashMap<>());
+                marks.forEach((studentId, completed) -> {
+                    if (buffered.putIfAbsent(studentId, completed) == null) {
+                        depth++;
+                    }
+                });
+            });
+            waiters.addAll(batchWaiters);
+        }
+    }
+
+    private void write(Map<String, Map<ObjectId, Boolean>> batch) {
+        // Course and already completed students of the batch (before the write), for the progress counters
+        Map<String, Activity> before = completions(batch);
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Activity.class);
+        batch.forEach((activityId, marks) -> {
+            Query query = Query.query(Criteria.where("_id").is(activityId));
+            Object[] completed = marks.entrySet().stream()
+                    .filter(Map.Entry::getValue).map(Map.Entry::getKey).toArray();
+            Object[] uncompleted = marks.entrySet().stream()
+                    .filter(mark -> !mark.getValue()).map(Map.Entry::getKey).toArray();
+            // $addToSet and $pull on the same field cannot share an update
+            if (completed.length > 0) {
+                bulk.updateOne(query, new Update().addToSet("completedBy").each(completed)
+                        .currentDate("lastModifiedDate").inc("detailsVersion", 1));
+            }
+            if (uncompleted.length > 0) {
+                bulk.updateOne(query, new Update().pullAll("completedBy", uncompleted)
+                        .currentDate("lastModifiedDate").inc("detailsVersion", 1));
+            }
+        });
+        bulk.execute();
+        courseViewService.markStale(batch.keySet().stream().filter(ObjectId::isValid).map(ObjectId::new).toList());
+
+        // $inc counters by the marks that changed completedBy (a write from another instance between the read
+        // and the bulkWrite, or a partially applied batch that is retried, is repaired by the reconcile)
+        Map<ObjectId, Map<ObjectId, Integer>> deltas = new HashMap<>();
+        batch.forEach((activityId, marks) -> {
+            Activity activity = before.get(activityId);
+            if (activity == null || activity.getIdCourse() == null) {
+                return;
+            }
+            Set<ObjectId> completedBy = new HashSet<>(activity.getCompletedBy());
+            marks.forEach((studentId, completed) -> {
+                if (completed != completedBy.contains(studentId)) {
+                    deltas.computeIfAbsent(activity.getIdCourse(), course -> new HashMap<>())
+                            .merge(studentId, completed ? 1 : -1, Integer::sum);
+                }
+            });
+        });
+        courseProgressService.completed(deltas);
+    }
+
+    // Activities of the batch with completedBy narrowed to the batch's students (one _id lookup)
+    private Map<String, Activity> completions(Map<String, Map<ObjectId, Boolean>> batch) {
+        Set<ObjectId> students = new HashSet<>();
+        batch.values().forEach(marks -> students.addAll(marks.keySet()));
+        Map<String, Activity> activities = new HashMap<>();
+        mongoTemplate.aggregate(
+                Aggregation.newAggregation(
+                        Aggregation.match(Criteria.where("_id").in(batch.keySet())),
+                        context -> new Document("$project", new Document("idCourse", 1)
+                                .append("completedBy", new Document("$setIntersection",
+                                        List.of(new Document("$ifNull", List.of("$completedBy", List.of())),
+                                                new ArrayList<>(students)))))
+                ),
+                "activities",
+                Activity.class
+        ).forEach(activity -> activities.put(activity.getId(), activity));
+        return activities;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Failed to write completion marks", e);
+        }
+    }
+
+    // Write pending marks on the caller (after shutdown), retrying failed writes right away
+    private void flushNow() {
+        for (int attempt = 0; attempt <= maxRetries && depth() > 0; attempt++) {
+            try {
+                flush(true);
+            } catch (RuntimeException e) {
+                log.error("Failed to write completion marks", e);
+                return;
+            }
+        }
+    }
+
+    private int depth() {
+        synchronized (bufferLock) {
+            return depth;
+        }
+    }
+
+    // Write remaining marks before shutdown
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            flushNow();
+        }
+    }
+}
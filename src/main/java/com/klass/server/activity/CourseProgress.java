@@ -0,0 +1,42 @@
+package com.klass.server.activity;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "course_progress")
+// Progress counters of a student in a course (also used to list progress of a course)
+@CompoundIndex(name = "course_student", def = "{'course': 1, 'student': 1}", unique = true)
+public class CourseProgress {
+
+    @Id
+    private String id;
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    private ObjectId course;
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    private ObjectId student;
+
+    // Activities of the course with the student in completedBy
+    private int completed;
+
+    // Assignments of the course with a submission of the student
+    private int submitted;
+
+    private LocalDateTime lastModifiedDate;
+
+}
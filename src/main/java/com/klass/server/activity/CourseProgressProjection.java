@@ -0,0 +1,21 @@
+package com.klass.server.activity;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import org.bson.types.ObjectId;
+
+// Progress of a student in a course (counters and number of activities of the course)
+public record CourseProgressProjection(
+        @JsonSerialize(using = ToStringSerializer.class)
+        ObjectId course,
+        @JsonSerialize(using = ToStringSerializer.class)
+        ObjectId student,
+        int completed,
+        int submitted,
+        long activities
+) {
+    static CourseProgressProjection of(CourseProgress progress, long activities) {
+        return new CourseProgressProjection(progress.getCourse(), progress.getStudent(),
+                progress.getCompleted(), progress.getSubmitted(), activities);
+    }
+}
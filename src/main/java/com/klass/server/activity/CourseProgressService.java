@@ -0,0 +1,243 @@
+package com.klass.server.activity;
+
+import com.mongodb.lang.Nullable;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Per (course, student) progress counters (course_progress collection)
+// Counters are moved with $inc by the code paths that change completions and submissions,
+// only when the write really changed something, so reading progress is a single indexed find
+// The $inc is a separate write, so counters are reconciled with completions and submissions at startup
+// (after the submission migration) and every reconcile interval
+@Service
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class CourseProgressService implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(CourseProgressService.class);
+
+    static final String COLLECTION = "course_progress";
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Value("${courses.progress.backfill-on-startup:true}")
+    boolean backfillOnStartup;
+
+    // Reconcile counters with existing completions and submissions (also builds them on first start)
+    @Override
+    public void run(ApplicationArguments args) {
+        if (backfillOnStartup) {
+            log.info("Reconciled progress counters for {} students", rebuild());
+        }
+    }
+
+    //=== Reads ===//
+
+    // Progress of a student (zero counters if the student has not completed anything yet)
+    public CourseProgressProjection find(ObjectId course, ObjectId student) {
+        CourseProgress progress = mongoTemplate.findOne(query(course, student), CourseProgress.class);
+        if (progress == null) {
+            progress = new CourseProgress(null, course, student, 0, 0, null);
+        }
+        return CourseProgressProjection.of(progress, activities(course));
+    }
+
+    // Progress of every student of a course, in the given order
+    public List<CourseProgressProjection> findAll(ObjectId course, List<ObjectId> students) {
+        Map<ObjectId, CourseProgress> counters = mongoTemplate.find(
+                        Query.query(Criteria.where("course").is(course)), CourseProgress.class)
+                .stream()
+                .collect(Collectors.toMap(CourseProgress::getStudent, Function.identity()));
+        long activities = activities(course);
+        return students.stream()
+                .distinct()
+                .map(student -> CourseProgressProjection.of(counters.getOrDefault(student,
+                        new CourseProgress(null, course, student, 0, 0, null)), activities))
+                .toList();
+    }
+
+    // Activities of the course (count on the idCourse index)
+    private long activities(ObjectId course) {
+        return mongoTemplate.count(Query.query(Criteria.where("idCourse").is(course)), Activity.class);
+    }
+
+    //=== Counter updates ===//
+
+    // Student completed (delta 1) or uncompleted (delta -1) an activity of the course
+    public void completed(@Nullable ObjectId course, ObjectId student, int delta) {
+        increment(course, List.of(student), "completed", delta);
+    }
+
+    // Student submitted an assignment of the course (first submission only, resubmissions replace it)
+    public void submitted(@Nullable ObjectId course, ObjectId student) {
+        increment(course, List.of(student), "submitted", 1);
+    }
+
+    // Activity deleted: its completions and submissions no longer count
+    public void activityRemoved(@Nullable ObjectId course, Collection<ObjectId> completedBy, Collection<ObjectId> submittedBy) {
+        increment(course, completedBy, "completed", -1);
+        increment(course, submittedBy, "submitted", -1);
+    }
+
+    // Course deleted
+    public void courseRemoved(ObjectId course) {
+        mongoTemplate.remove(Query.query(Criteria.where("course").is(course)), CourseProgress.class);
+    }
+
+    // Activities without idCourse cannot be attributed to a course and are not counted
+    private void increment(@Nullable ObjectId course, Collection<ObjectId> students, String counter, int delta) {
+        if (course == null || students.isEmpty()) {
+            return;
+        }
+        Update update = new Update().inc(counter, delta).currentDate("lastModifiedDate");
+        if (delta > 0) {
+            // First change creates the counters (upserts on the unique (course, student) index
+            // are retried by the server on a duplicate key)
+            students.forEach(student -> mongoTemplate.upsert(query(course, student), update, CourseProgress.class));
+        } else {
+            // Students without counters have nothing to take back
+            mongoTemplate.updateMulti(
+                    Query.query(Criteria.where("course").is(course).and("student").in(students)),
+                    update, CourseProgress.class);
+        }
+    }
+
+    // Completion changes of a batch (course -> student -> delta), as one bulkWrite
+    public void completed(Map<ObjectId, Map<ObjectId, Integer>> deltas) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CourseProgress.class);
+        int changes = 0;
+        for (Map.Entry<ObjectId, Map<ObjectId, Integer>> course : deltas.entrySet()) {
+            for (Map.Entry<ObjectId, Integer> student : course.getValue().entrySet()) {
+                int delta = student.getValue();
+                if (delta == 0) {
+                    continue;
+                }
+                Update update = new Update().inc("completed", delta).currentDate("lastModifiedDate");
+                // Same rules as increment: positive deltas create the counters, negative ones never do
+                if (delta > 0) {
+                    bulk.upsert(query(course.getKey(), student.getKey()), update);
+                } else {
+                    bulk.updateOne(query(course.getKey(), student.getKey()), update);
+                }
+                changes++;
+            }
+        }
+        if (changes > 0) {
+            bulk.execute();
+        }
+    }
+
+    //=== Rebuild ===//
+
+    // Recompute all counters from activities and submissions, returns number of counter documents
+    // Counters are overwritten in place (never missing for readers), then counters no longer backed by any
+    // completion or submission are zeroed. A counter update racing with it is repaired by the next run
+    @Scheduled(initialDelayString = "${courses.progress.reconcile-interval:PT1H}",
+            fixedDelayString = "${courses.progress.reconcile-interval:PT1H}")
+    public long rebuild() {
+        Date startedAt = new Date();
+
+        // Completions: activities unwound by completedBy
+        mongoTemplate.aggregate(
+                Aggregation.newAggregation(
+                        Aggregation.match(Criteria.where("idCourse").ne(null).and("completedBy.0").exists(true)),
+                        Aggregation.project("idCourse", "completedBy"),
+                        Aggregation.unwind("completedBy"),
+                        groupCompletions(),
+                        counters("completed", startedAt),
+                        mergeCounters()
+                ),
+                "activities",
+                Document.class
+        );
+
+        // Submissions: course of each submission from its activity
+        mongoTemplate.aggregate(
+                Aggregation.newAggregation(
+                        Aggregation.lookup("activities", "activity", "_id", "activity"),
+                        Aggregation.unwind("activity"),
+                        Aggregation.match(Criteria.where("activity.idCourse").ne(null)),
+                        context -> new Document("$group", new Document("_id", new Document("course", "$activity.idCourse")
+                                .append("student", "$student"))
+                                .append("submitted", new Document("$sum", 1))),
+                        counters("submitted", startedAt),
+                        mergeCounters()
+                ),
+                "submissions",
+                Document.class
+        );
+
+        zeroUncounted("completed", startedAt);
+        zeroUncounted("submitted", startedAt);
+        return mongoTemplate.count(new Query(), COLLECTION);
+    }
+
+    // Counters not written by this run, in documents created before it (newer ones come from $inc)
+    private void zeroUncounted(String counter, Date startedAt) {
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("_id").lt(new ObjectId(startedAt)).orOperator(
+                        Criteria.where(countedAt(counter)).lt(startedAt),
+                        Criteria.where(countedAt(counter)).exists(false))),
+                new Update().set(counter, 0).currentDate("lastModifiedDate"),
+                COLLECTION
+        );
+    }
+
+    // Time the counter was last recomputed (not mapped in CourseProgress)
+    private static String countedAt(String counter) {
+        return counter + "CountedAt";
+    }
+
+    // Completions by course and student
+    private static AggregationOperation groupCompletions() {
+        return context -> new Document("$group", new Document("_id", new Document("course", "$idCourse")
+                .append("student", "$completedBy"))
+                .append("completed", new Document("$sum", 1)));
+    }
+
+    // Counter document from a (course, student) group
+    private static AggregationOperation counters(String counter, Date startedAt) {
+        return context -> new Document("$project", new Document("_id", 0)
+                .append("course", "$_id.course")
+                .append("student", "$_id.student")
+                .append(counter, 1)
+                .append(countedAt(counter), new Document("$literal", startedAt))
+                .append("lastModifiedDate", "$$NOW"));
+    }
+
+    // Merge counters into existing documents (completions and submissions are built separately)
+    private static MergeOperation mergeCounters() {
+        return Aggregation.merge()
+                .intoCollection(COLLECTION)
+                .on("course", "student")
+                .whenDocumentsMatch(MergeOperation.WhenDocumentsMatch.mergeDocuments())
+                .whenDocumentsDontMatch(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+                .build();
+    }
+
+    private static Query query(ObjectId course, ObjectId student) {
+        return Query.query(Criteria.where("course").is(course).and("student").is(student));
+    }
+}
@@ -0,0 +1,10 @@
+package com.klass.server.activity;
+
+import org.bson.types.ObjectId;
+
+// Grade of a student's submission (bulk grading request row)
+public record GradeEntry(
+        ObjectId student,
+        String grade
+) {
+}
@@ -0,0 +1,14 @@
+package com.klass.server.activity;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import org.bson.types.ObjectId;
+
+// Result of a bulk grading row (status: updated, not_found or error)
+public record GradeResult(
+        @JsonSerialize(using = ToStringSerializer.class)
+        ObjectId student,
+        String status,
+        String message
+) {
+}
@@ -0,0 +1,56 @@
+package com.klass.server.activity;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Non-blocking variant of the activity read endpoints (same shapes and access rules as ActivityController)
+// Served by Spring MVC, not a WebFlux server: MVC subscribes to the returned Mono/Flux and completes the
+// request asynchronously (servlet async on Tomcat NIO), so no thread waits for Mongo, while the security
+// filter chain, method security and the /api context path stay shared with the blocking endpoints
+@RestController
+@RequestMapping("/reactive/activities")
+public class ReactiveActivityController {
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Autowired
+    public ReactiveActivityController(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    @Autowired
+    ActivityPipelines activityPipelines;
+
+    // Get all activities
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping
+    public Flux<ActivityProjection> getAllActivities() {
+        return reactiveMongoTemplate.aggregate(
+                activityPipelines.allActivities(),
+                "activities",
+                ActivityProjection.class
+        );
+    }
+
+    // Get activity by id
+    @GetMapping("/{activityId}")
+    public Mono<ResponseEntity<ActivityProjection>> getActivityById(@PathVariable String activityId) {
+        return reactiveMongoTemplate.aggregate(
+                        activityPipelines.activityById(activityId),
+                        "activities",
+                        ActivityProjection.class
+                )
+                .next()
+                .map(ResponseEntity::ok)
+                // Only a missing activity is a 404, errors are handled like in any other endpoint
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+}
@@ -7,15 +7,40 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.bson.types.ObjectId;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
 
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
+@Document(collection = "submissions")
+// One submission per student and activity (also used to list submissions of an activity)
+@CompoundIndex(name = "activity_student", def = "{'activity': 1, 'student': 1}", unique = true)
 public class Submission {
+
+    @Id
+    private String id;
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    private ObjectId activity;
+
     @JsonSerialize(using = ToStringSerializer.class)
     private ObjectId student;
+
     private String file;
+
     private String grade;
 
+    @CreatedDate
+    private LocalDateTime createdDate;
+
+    @LastModifiedDate
+    private LocalDateTime lastModifiedDate;
+
 }
@@ -0,0 +1,90 @@
+package com.klass.server.activity;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Moves submissions embedded in activities (Activity.submissions) to the submissions collection
+// Existing documents in the collection are kept (they are newer), so the migration can be re-run safely
+// Runs before the course progress reconcile, which counts migrated submissions
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class SubmissionMigration implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(SubmissionMigration.class);
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Autowired
+    CourseProgressService courseProgressService;
+
+    @Value("${activities.submissions.migrate-on-startup:true}")
+    boolean migrateOnStartup;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (migrateOnStartup) {
+            migrate();
+        }
+    }
+
+    // Returns number of migrated activities
+    public long migrate() {
+        Query query = new Query(Criteria.where("submissions").exists(true));
+        query.fields().include("_id", "submissions");
+
+        long activities = 0;
+        long submissions = 0;
+        try (Stream<Document> stream = mongoTemplate.stream(query, Document.class, "activities")) {
+            for (Document activity : (Iterable<Document>) stream::iterator) {
+                List<Document> embedded = activity.getList("submissions", Document.class, List.of());
+                if (!embedded.isEmpty()) {
+                    BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Submission.class);
+                    for (Document submission : embedded) {
+                        bulk.upsert(
+                                Query.query(Criteria.where("activity").is(activity.getObjectId("_id"))
+                                        .and("student").is(submission.get("student"))),
+                                new Update()
+                                        .setOnInsert("file", submission.getString("file"))
+                                        .setOnInsert("grade", submission.getString("grade"))
+                                        .setOnInsert("createdDate", LocalDateTime.now())
+                                        .setOnInsert("lastModifiedDate", LocalDateTime.now())
+                        );
+                    }
+                    bulk.execute();
+                    submissions += embedded.size();
+                }
+                // Remove embedded list once copied
+                mongoTemplate.updateFirst(
+                        Query.query(Criteria.where("_id").is(activity.getObjectId("_id"))),
+                        new Update().unset("submissions"),
+                        "activities"
+                );
+                activities++;
+            }
+        }
+        if (activities > 0) {
+            log.info("Migrated {} submissions from {} activities", submissions, activities);
+            // Migrated submissions were not counted in course progress
+            courseProgressService.rebuild();
+        }
+        return activities;
+    }
+}
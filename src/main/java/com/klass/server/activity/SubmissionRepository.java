@@ -0,0 +1,22 @@
+package com.klass.server.activity;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface SubmissionRepository extends MongoRepository<Submission, String> {
+
+    // Get submissions of an activity
+    Page<Submission> findByActivity(ObjectId activity, Pageable pageable);
+
+    // Get submission of a student
+    Optional<Submission> findByActivityAndStudent(ObjectId activity, ObjectId student);
+
+    void deleteByActivity(ObjectId activity);
+
+}
@@ -0,0 +1,42 @@
+package com.klass.server.common.aggregation;
+
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Immutable list of aggregation stages, built once and shared between requests
+// Per-request parameters are bound into a new pipeline, the template itself is never modified
+public final class PipelineTemplate {
+
+    private final List<AggregationOperation> stages;
+
+    public PipelineTemplate(AggregationOperation... stages) {
+        this.stages = List.of(stages);
+    }
+
+    public int size() {
+        return stages.size();
+    }
+
+    // New pipeline with a $match in front of the template stages
+    public Aggregation bind(Criteria match) {
+        return bind(List.of(Aggregation.match(match)), List.of());
+    }
+
+    // New pipeline with stages before and after the template stages
+    public Aggregation bind(List<AggregationOperation> before, List<AggregationOperation> after) {
+        List<AggregationOperation> pipeline = new ArrayList<>(before.size() + stages.size() + after.size());
+        pipeline.addAll(before);
+        pipeline.addAll(stages);
+        pipeline.addAll(after);
+        return Aggregation.newAggregation(pipeline);
+    }
+
+    // New pipeline with only the template stages
+    public Aggregation unbound() {
+        return Aggregation.newAggregation(stages);
+    }
+}
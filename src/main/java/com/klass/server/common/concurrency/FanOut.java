@@ -0,0 +1,79 @@
+package com.klass.server.common.concurrency;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+// Runs independent reads at the same time in a structured task scope (StructuredTaskScope, a preview API in
+// Java 21: the build and the runtime enable preview features, see pom.xml)
+// One read is forked on a virtual thread, the other runs on the caller (keeps the request's thread locals).
+// The call returns only when both are done; when one fails the scope is shut down, the other is interrupted
+// and the failure is rethrown once the forked thread has stopped. Sequential when virtual threads are disabled
+@Component
+public class FanOut {
+
+    // Null when virtual threads are disabled
+    private final ThreadFactory threads;
+
+    public FanOut(@Value("${threads.virtual.enabled:true}") boolean virtualThreads) {
+        this.threads = virtualThreads ? Thread.ofVirtual().name("fan-out-", 0).factory() : null;
+    }
+
+    public <A, B, R> R both(Supplier<A> first, Supplier<B> second, BiFunction<A, B, R> combine) {
+        if (threads == null) {
+            return combine.apply(first.get(), second.get());
+        }
+        try (var scope = new StructuredTaskScope.ShutdownOnFailure("fan-out", threads)) {
+            StructuredTaskScope.Subtask<A> forked = scope.fork(first::get);
+            B secondResult;
+            try {
+                secondResult = second.get();
+            } catch (RuntimeException | Error e) {
+                // Closing the scope waits for the interrupted fork
+                scope.shutdown();
+                joinUninterruptibly(scope);
+                throw e;
+            }
+            try {
+                scope.join();
+            } catch (InterruptedException e) {
+                scope.shutdown();
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for forked task");
+            }
+            scope.exception().ifPresent(FanOut::rethrow);
+            return combine.apply(forked.get(), secondResult);
+        }
+    }
+
+    private static void rethrow(Throwable failure) {
+        if (failure instanceof RuntimeException cause) {
+            throw cause;
+        } else if (failure instanceof Error cause) {
+            throw cause;
+        }
+        throw new CompletionException(failure);
+    }
+
+    // Join (required before closing the scope) even if the caller is interrupted (interrupt is restored)
+    private static void joinUninterruptibly(StructuredTaskScope<?> scope) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                scope.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.klass.server.common.concurrency;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+// Requests run on virtual threads (a thread blocked on Mongo or S3 no longer holds one of Tomcat's 200 threads)
+// Disable with threads.virtual.enabled=false, e.g. to compare with platform threads
+@Configuration
+@ConditionalOnProperty(name = "threads.virtual.enabled", havingValue = "true", matchIfMissing = true)
+public class VirtualThreadsConfiguration {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadsProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
@@ -1,11 +1,15 @@
 package com.klass.server.common.exceptions;
 
 import com.mongodb.MongoWriteException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.util.concurrent.RejectedExecutionException;
+
 
 @RestControllerAdvice
 public class ExceptionsHandler {
@@ -21,4 +25,16 @@ public class ExceptionsHandler {
     public ResponseEntity<ErrorResponse> handleMongoWriteExceptions(MongoWriteException e) {
         return ResponseEntity.badRequest().body(new ErrorResponse(400, e.getError().getMessage()));
     }
+
+    // Work queue full (e.g. S3 transfers), client should retry later
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<ErrorResponse> handleRejectedExecutionExceptions(RejectedExecutionException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new ErrorResponse(503, e.getMessage()));
+    }
+
+    // Document changed since its version was read (concurrent update or stale If-Match)
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<ErrorResponse> handleOptimisticLockingFailureExceptions(OptimisticLockingFailureException e) {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(new ErrorResponse(412, e.getMessage()));
+    }
 }
@@ -0,0 +1,141 @@
+package com.klass.server.common.indexes;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mapping.context.MappingContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+// Compares the index plan declared on the documents (@Indexed, @CompoundIndex) with the cluster on startup
+//  - missing: declared but not in the cluster (queries relying on it scan the collection)
+//  - undeclared: in the cluster but not declared (candidates to drop, or to declare)
+//  - unused: no operation since the stats were reset ($indexStats, reset when mongod restarts)
+@Component
+public class IndexPlanVerifier implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexPlanVerifier.class);
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Value("${indexes.verify-on-startup:true}")
+    boolean verifyOnStartup;
+
+    // Stop startup when a declared index is missing
+    @Value("${indexes.fail-on-missing:false}")
+    boolean failOnMissing;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!verifyOnStartup) {
+            return;
+        }
+        List<String> missing = verify();
+        if (!missing.isEmpty() && failOnMissing) {
+            throw new IllegalStateException("Missing indexes: " + missing);
+        }
+    }
+
+    // Log differences, returns missing indexes (collection.keys)
+    public List<String> verify() {
+        List<String> missing = new ArrayList<>();
+        declaredIndexes(mongoTemplate.getConverter().getMappingContext()).forEach((collection, declared) -> {
+            List<IndexInfo> existing = mongoTemplate.indexOps(collection).getIndexInfo();
+            Set<String> existingKeys = existing.stream().map(IndexPlanVerifier::keys).collect(Collectors.toSet());
+            Set<String> declaredKeys = declared.stream()
+                    .map(index -> keys(index.getIndexKeys()))
+                    .collect(Collectors.toSet());
+
+            for (String keys : declaredKeys) {
+                if (!existingKeys.contains(keys)) {
+                    log.warn("Missing index on {}: {}", collection, keys);
+                    missing.add(collection + "." + keys);
+                }
+            }
+            for (IndexInfo index : existing) {
+                String keys = keys(index);
+                if (!declaredKeys.contains(keys) && !keys.equals("_id:1")) {
+                    log.info("Undeclared index on {}: {} ({})", collection, keys, index.getName());
+                }
+            }
+            unused(collection).forEach(name -> log.info("Unused index on {}: {}", collection, name));
+        });
+        return missing;
+    }
+
+    // Declared indexes of every document class, by collection
+    public static Map<String, List<IndexDefinition>> declaredIndexes(
+            MappingContext<? extends MongoPersistentEntity<?>, MongoPersistentProperty> mappingContext) {
+        MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+        Map<String, List<IndexDefinition>> indexes = new TreeMap<>();
+        for (MongoPersistentEntity<?> entity : mappingContext.getPersistentEntities()) {
+            if (entity.isAnnotationPresent(org.springframework.data.mongodb.core.mapping.Document.class)) {
+                List<IndexDefinition> definitions = new ArrayList<>();
+                resolver.resolveIndexFor(entity.getTypeInformation()).forEach(definitions::add);
+                indexes.merge(entity.getCollection(), definitions, (first, second) -> {
+                    first.addAll(second);
+                    return first;
+                });
+            }
+        }
+        return indexes;
+    }
+
+    // Index names without operations ($indexStats needs clusterMonitor or collection owner rights)
+    private List<String> unused(String collection) {
+        try {
+            return mongoTemplate.aggregate(Aggregation.newAggregation(
+                            Aggregation.stage(new Document("$indexStats", new Document())),
+                            Aggregation.match(Criteria.where("accesses.ops").is(0L)),
+                            Aggregation.sort(Sort.Direction.ASC, "name")
+                    ), collection, Document.class)
+                    .getMappedResults().stream()
+                    .map(stats -> stats.getString("name"))
+                    .filter(name -> !name.equals("_id_"))
+                    .toList();
+        } catch (RuntimeException e) {
+            log.debug("Index usage of {} not available: {}", collection, e.getMessage());
+            return List.of();
+        }
+    }
+
+    private static String keys(IndexInfo index) {
+        return index.getIndexFields().stream()
+                .map(field -> field.getKey() + ":" + direction(field))
+                .collect(Collectors.joining(","));
+    }
+
+    private static String direction(IndexField field) {
+        if (field.isText()) {
+            return "text";
+        } else if (field.isGeo()) {
+            return "geo";
+        } else if (field.isHashed()) {
+            return "hashed";
+        }
+        return field.getDirection() == Sort.Direction.DESC ? "-1" : "1";
+    }
+
+    private static String keys(Document indexKeys) {
+        return indexKeys.entrySet().stream()
+                .map(key -> key.getKey() + ":" + key.getValue())
+                .collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,20 @@
+package com.klass.server.common.pagination;
+
+import java.util.List;
+import java.util.function.Function;
+
+// Keyset page: items plus the cursor for the next page (null on last page)
+public record CursorPage<T>(
+        List<T> items,
+        String next
+) {
+
+    // Build page from a query that fetched one extra item (size + 1) to detect a next page
+    public static <T> CursorPage<T> of(List<T> results, int size, Function<T, String> cursor) {
+        if (results.size() <= size) {
+            return new CursorPage<>(results, null);
+        }
+        List<T> items = results.subList(0, size);
+        return new CursorPage<>(items, cursor.apply(items.get(size - 1)));
+    }
+}
@@ -0,0 +1,56 @@
+package com.klass.server.common.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.klass.server.user.User;
+import com.klass.server.user.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+// Bounded cache of authenticated users, keyed by email (token subject)
+// Entries expire after the TTL so role changes made elsewhere are picked up eventually,
+// and are invalidated immediately when a user is updated or deleted through the API
+@Component
+public class PrincipalCache {
+
+    private final UserRepository userRepository;
+
+    private final Cache<String, UserPrincipal> cache;
+
+    public PrincipalCache(UserRepository userRepository,
+                          MeterRegistry meterRegistry,
+                          @Value("${security.principal-cache.max-size:10000}") long maxSize,
+                          @Value("${security.principal-cache.ttl:5m}") Duration ttl) {
+        this.userRepository = userRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        // Exposes cache.gets{result=hit|miss}, cache.size and cache.evictions
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "auth.principals");
+    }
+
+    // Get principal, loading from database on a miss (null if user does not exist)
+    public UserPrincipal get(String email) {
+        return cache.get(email, key -> {
+            User user = userRepository.findByEmail(key);
+            return user == null ? null : UserPrincipal.of(user);
+        });
+    }
+
+    // Store principal of a freshly loaded user (e.g. on login)
+    public void put(User user) {
+        cache.put(user.getEmail(), UserPrincipal.of(user));
+    }
+
+    public void invalidate(String email) {
+        if (email != null) {
+            cache.invalidate(email);
+        }
+    }
+}
@@ -31,6 +31,8 @@ public class SecurityConfiguration {
                 .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
                 .and().authorizeRequests()
                 .requestMatchers(HttpMethod.POST, "/login").permitAll()
+                // Thumbnail redirects are loaded by <img> tags (no Authorization header), only generated thumbnails are served
+                .requestMatchers(HttpMethod.GET, "/s3/thumbnails/**").permitAll()
                 // All other requests must be authenticated
                 .anyRequest().authenticated().and()
                 // Filter to validate token
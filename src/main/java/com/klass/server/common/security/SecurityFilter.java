@@ -1,7 +1,6 @@
 package com.klass.server.common.security;
 
-import com.klass.server.user.User;
-import com.klass.server.user.UserRepository;
+import com.auth0.jwt.interfaces.DecodedJWT;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -22,7 +21,7 @@ public class SecurityFilter extends OncePerRequestFilter {
     private TokenService tokenService;
 
     @Autowired
-    private UserRepository userRepository;
+    private PrincipalCache principalCache;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request,
@@ -34,19 +33,22 @@ public class SecurityFilter extends OncePerRequestFilter {
             // Delete "Bearer " from token
             token = token.substring(7);
 
-            // Get user from token
-            String subject = tokenService.getSubject(token);
-
-            // Force authentication in Spring Security
-            if (subject != null) {
-                User user = userRepository.findByEmail(subject);
-                var authentication = new UsernamePasswordAuthenticationToken(
-                        user.getEmail(),
-                        null,
-                        user.getAuthorities()
-                );
-                SecurityContextHolder.getContext().setAuthentication(authentication);
-
+            // Get verified claims from token
+            DecodedJWT claims = tokenService.getClaims(token);
+
+            if (claims != null && claims.getSubject() != null) {
+                // Cached user (role may have changed since the token was issued)
+                UserPrincipal principal = principalCache.get(claims.getSubject());
+
+                // Force authentication in Spring Security (skip deleted or recreated users)
+                if (principal != null && principal.id().equals(claims.getClaim("id").asString())) {
+                    var authentication = new UsernamePasswordAuthenticationToken(
+                            principal,
+                            null,
+                            principal.authorities()
+                    );
+                    SecurityContextHolder.getContext().setAuthentication(authentication);
+                }
             }
         }
         filterChain.doFilter(request, response);
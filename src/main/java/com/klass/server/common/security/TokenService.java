@@ -6,15 +6,27 @@ import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTCreationException;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import com.klass.server.user.UserRepository;
 import com.klass.server.user.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.HexFormat;
 
 @Service
 public class TokenService {
@@ -22,16 +34,47 @@ public class TokenService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Value("${jwt.secret}")
     private String secret;
 
+    @Value("${jwt.verified-cache.max-size:10000}")
+    private long verifiedCacheMaxSize;
+
+    // Reusable signing algorithm and verifier (thread-safe)
+    private Algorithm algorithm;
+
+    private JWTVerifier verifier;
+
+    // Tokens that already passed signature and claims verification, keyed by digest
+    private Cache<String, DecodedJWT> verifiedTokens;
+
+    @PostConstruct
+    void init() {
+        algorithm = Algorithm.HMAC256(secret);
+        verifier = JWT.require(algorithm)
+                // specify an specific claim validations
+                .withIssuer("Klass")
+                .build();
+        verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(verifiedCacheMaxSize)
+                .expireAfter(new TokenExpiry())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "auth.tokens");
+    }
+
     public String generateToken(UserDetails userAuth) {
         // Search user in database
         User user = userRepository.findByEmail(userAuth.getUsername());
 
         String token;
         try {
-            Algorithm algorithm = Algorithm.HMAC256(secret);
             assert user != null;
             token = JWT.create()
                     .withIssuer("Klass")
@@ -47,28 +90,71 @@ public class TokenService {
         } catch (JWTCreationException exception) {
             throw new RuntimeException("Error generating token");
         }
+        // User was just loaded, cache it for upcoming authenticated requests
+        principalCache.put(user);
         return token;
     }
 
     public String getSubject(String token) {
-        if (token == null) {
-            throw new RuntimeException("Token is null");
+        DecodedJWT decodedJWT = getClaims(token);
+        return decodedJWT == null ? null : decodedJWT.getSubject();
+    }
+
+    // Get verified token claims (null if token is invalid)
+    public DecodedJWT getClaims(String token) {
+        // Fail fast on missing or malformed tokens (header.payload.signature)
+        if (token == null || token.chars().filter(c -> c == '.').count() != 2) {
+            return null;
         }
-        DecodedJWT decodedJWT = null;
-        try {
-            Algorithm algorithm = Algorithm.HMAC256(secret);
-            JWTVerifier verifier = JWT.require(algorithm)
-                    // specify an specific claim validations
-                    .withIssuer("Klass")
-                    // reusable verifier instance
-                    .build();
 
-            decodedJWT = verifier.verify(token);
-        } catch (JWTVerificationException exception){
+        // Already verified token
+        String digest = digest(token);
+        DecodedJWT cached = verifiedTokens.getIfPresent(digest);
+        if (cached != null) {
+            return cached;
+        }
+
+        try {
+            DecodedJWT decodedJWT = verifier.verify(token);
+            verifiedTokens.put(digest, decodedJWT);
+            return decodedJWT;
+        } catch (JWTVerificationException exception) {
             // Invalid signature/claims
+            return null;
+        }
+    }
+
+    // SHA-256 of token, used as cache key so raw tokens are not kept in memory
+    private static String digest(String token) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(messageDigest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Evict each verified token when it expires
+    private static class TokenExpiry implements Expiry<String, DecodedJWT> {
+
+        @Override
+        public long expireAfterCreate(String key, DecodedJWT value, long currentTime) {
+            Instant expiresAt = value.getExpiresAtAsInstant();
+            if (expiresAt == null) {
+                return 0;
+            }
+            return Math.max(0, Duration.between(Instant.now(), expiresAt).toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, DecodedJWT value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, DecodedJWT value, long currentTime, long currentDuration) {
+            return currentDuration;
         }
-        assert decodedJWT != null;
-        return decodedJWT.getSubject();
     }
 
 }
@@ -0,0 +1,46 @@
+package com.klass.server.common.security;
+
+import com.klass.server.user.User;
+import org.bson.types.ObjectId;
+import org.springframework.security.core.AuthenticatedPrincipal;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.List;
+
+// Authenticated user data kept in the security context (avoids loading the user on every request)
+public record UserPrincipal(
+        String id,
+        String email,
+        String role
+) implements AuthenticatedPrincipal {
+
+    public static UserPrincipal of(User user) {
+        return new UserPrincipal(user.getId(), user.getEmail(), user.getRole());
+    }
+
+    // Get principal from current authentication
+    public static UserPrincipal current() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.getPrincipal() instanceof UserPrincipal principal) {
+            return principal;
+        }
+        throw new IllegalStateException("No authenticated user in security context");
+    }
+
+    public ObjectId objectId() {
+        return new ObjectId(id);
+    }
+
+    public List<GrantedAuthority> authorities() {
+        return List.of(new SimpleGrantedAuthority("ROLE_" + role.toUpperCase()));
+    }
+
+    // Name used by Authentication.getName()
+    @Override
+    public String getName() {
+        return email;
+    }
+}
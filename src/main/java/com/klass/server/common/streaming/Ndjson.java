@@ -0,0 +1,40 @@
+package com.klass.server.common.streaming;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// Newline-delimited JSON responses written while the Mongo cursor is read (one document in memory at a time)
+// Writes block when the client reads slowly, so the cursor only fetches the next batch when the socket drains
+public final class Ndjson {
+
+    private Ndjson() {
+    }
+
+    // Cursor is opened when the response is written and closed when done (or when the client disconnects)
+    public static <T> ResponseEntity<StreamingResponseBody> response(Supplier<Stream<T>> cursor,
+                                                                      ObjectMapper objectMapper) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body(cursor, objectMapper));
+    }
+
+    static <T> StreamingResponseBody body(Supplier<Stream<T>> cursor, ObjectMapper objectMapper) {
+        return outputStream -> {
+            try (Stream<T> documents = cursor.get();
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                // Response stream is closed by the container
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                for (T document : (Iterable<T>) documents::iterator) {
+                    objectMapper.writeValue(generator, document);
+                    generator.writeRaw('\n');
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,62 @@
+package com.klass.server.common.versioning;
+
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Strong entity tags built from document versions (If-None-Match is checked with WebRequest.checkNotModified)
+public final class ETags {
+
+    private ETags() {
+    }
+
+    // Tag of a single document
+    public static String of(String value) {
+        return "\"" + value + "\"";
+    }
+
+    // Tag of a list from the tags of its items, in order (read before the list itself is built)
+    public static String ofAll(List<String> parts) {
+        return of(DigestUtils.md5DigestAsHex(String.join(",", parts).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // Whether an If-Match header matches the current tag (strong comparison, * matches any tag)
+    public static boolean matches(String ifMatch, String etag) {
+        for (String tag : ifMatch.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Whether an If-Match header holds a tag of the given document version (tags of a GET may add
+    // freshness of embedded data after the version, writes only depend on the document itself)
+    public static boolean matchesVersion(String ifMatch, long version) {
+        for (String tag : ifMatch.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.length() > 2 && candidate.startsWith("\"") && candidate.endsWith("\"")) {
+                try {
+                    if (version(candidate) == version) {
+                        return true;
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a version tag
+                }
+            }
+        }
+        return false;
+    }
+
+    // Document version of a tag built as "<version>" or "<version>.<suffix>"
+    public static long version(String etag) {
+        String value = etag.substring(1, etag.length() - 1);
+        int suffix = value.indexOf('.');
+        return Long.parseLong(suffix < 0 ? value : value.substring(0, suffix));
+    }
+}
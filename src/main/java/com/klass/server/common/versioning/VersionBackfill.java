@@ -0,0 +1,54 @@
+package com.klass.server.common.versioning;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Sets version 0 on courses and activities saved before they had a @Version field
+// (saving a document with a null version would insert it again instead of updating it)
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class VersionBackfill implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(VersionBackfill.class);
+
+    static final List<String> COLLECTIONS = List.of("courses", "activities");
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Value("${versioning.backfill-on-startup:true}")
+    boolean backfillOnStartup;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (backfillOnStartup) {
+            COLLECTIONS.forEach(this::backfill);
+        }
+    }
+
+    // Returns number of updated documents
+    public long backfill(String collection) {
+        long updated = mongoTemplate.updateMulti(
+                Query.query(Criteria.where("version").exists(false)),
+                new Update().set("version", 0L),
+                collection
+        ).getModifiedCount();
+        if (updated > 0) {
+            log.info("Set initial version on {} {}", updated, collection);
+        }
+        return updated;
+    }
+}
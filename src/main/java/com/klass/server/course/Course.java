@@ -12,6 +12,9 @@ import org.bson.types.ObjectId;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
@@ -23,6 +26,15 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "courses")
+// Indexes for course listing: each filter followed by _id so keyset pages are index range scans
+@CompoundIndexes({
+        @CompoundIndex(name = "instructor_id", def = "{'instructor': 1, '_id': 1}"),
+        @CompoundIndex(name = "students_id", def = "{'students': 1, '_id': 1}"),
+        @CompoundIndex(name = "category_published_id", def = "{'category': 1, 'published': 1, '_id': 1}"),
+        @CompoundIndex(name = "published_id", def = "{'published': 1, '_id': 1}"),
+        // Courses containing an activity (course view refresh)
+        @CompoundIndex(name = "lessons_activities", def = "{'lessons.activities': 1}")
+})
 public class Course {
 
     @Id
@@ -52,6 +64,10 @@ public class Course {
 
     private List<Lesson> lessons = new ArrayList<>();
 
+    // Incremented on every write (optimistic locking and ETags)
+    @Version
+    private Long version;
+
     @CreatedDate
     private LocalDateTime createdDate;
 
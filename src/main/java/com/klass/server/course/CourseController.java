@@ -1,23 +1,37 @@
 package com.klass.server.course;
 
-import com.klass.server.user.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.klass.server.activity.CourseProgressProjection;
+import com.klass.server.activity.CourseProgressService;
+import com.klass.server.common.concurrency.FanOut;
+import com.klass.server.common.pagination.CursorPage;
+import com.klass.server.common.security.UserPrincipal;
+import com.klass.server.common.streaming.Ndjson;
+import com.klass.server.common.versioning.ETags;
 import com.mongodb.lang.Nullable;
 import jakarta.validation.Valid;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.aggregation.*;
 import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.URI;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @RestController
@@ -31,6 +45,8 @@ public class CourseController {
     SimpleGrantedAuthority ROLE_INSTRUCTOR = new SimpleGrantedAuthority("ROLE_INSTRUCTOR");
     SimpleGrantedAuthority ROLE_STUDENT = new SimpleGrantedAuthority("ROLE_STUDENT");
 
+    static final int MAX_PAGE_SIZE = 100;
+
 
     @Autowired
     public CourseController(CourseRepository courseRepository) {
@@ -41,161 +57,143 @@ public class CourseController {
     MongoTemplate mongoTemplate;
 
     @Autowired
-    UserRepository userRepository;
-
-    //=== Lookup aggregations for GET methods ===//
-
-    // Embed lessons in course
-    UnwindOperation unwindLessons = Aggregation.unwind("lessons", true);
-
-    LookupOperation lookupActivities = LookupOperation.newLookup()
-            .from("activities")
-            .localField("lessons.activities")
-            .foreignField("_id")
-            .as("lessons.activities");
-
-    GroupOperation groupLessons = Aggregation.group("_id")
-            .first("name").as("name")
-            .first("slug").as("slug")
-            .first("description").as("description")
-            .first("image").as("image")
-            .first("category").as("category")
-            .first("published").as("published")
-            .first("instructor").as("instructor")
-            .first("students").as("students")
-            .push("lessons").as("lessons");
-
-
-    // Embed instructor in course
-    LookupOperation lookupInstructor = LookupOperation.newLookup()
-            .from("users")
-            .localField("instructor")
-            .foreignField("_id")
-            .as("instructor");
-
-    UnwindOperation unwindInstructor = Aggregation.unwind("instructor", true);
-
-    // Embed students in course
-    LookupOperation lookupStudents = LookupOperation.newLookup()
-            .from("users")
-            .localField("students")
-            .foreignField("_id")
-            .as("students");
-
-
-    // All aggregations ordered
-    LinkedList<AggregationOperation> courseAggregations = new LinkedList<>(List.of(
-            // Lessons
-            unwindLessons,
-            lookupActivities,
-            groupLessons,
-            // Instructor
-            lookupInstructor,
-            unwindInstructor,
-            // Students
-            lookupStudents
-    ));
+    CoursePipelines coursePipelines;
 
+    @Autowired
+    CourseViewService courseViewService;
 
-    //=== REST methods ===//
+    @Autowired
+    CourseProgressService courseProgressService;
 
-    // TODO: Add pagination and filtering
-    // TODO: 2. Abstract postman collections
-    // TODO Slug availability
-    // TODO: Course preview projection
+    @Autowired
+    EnrollmentIndex enrollmentIndex;
 
-    // Get all courses
-    @GetMapping
-    public ResponseEntity<List<CourseProjection>> getAllCourses() {
+    @Autowired
+    FanOut fanOut;
 
-        // Get current authentication
-        var auth = SecurityContextHolder.getContext()
-                .getAuthentication();
+    @Autowired
+    ObjectMapper objectMapper;
 
-        // Get user id
-        ObjectId userId = new ObjectId(userRepository.findByEmail(auth.getName()).getId());
+    //=== REST methods ===//
 
-        LinkedList<AggregationOperation> aggregationList = courseAggregations;
+    // TODO: 2. Abstract postman collections
+    // TODO Slug availability
 
-        // Check user role (TODO: Is this boilerplate?)
-        if (auth.getAuthorities().contains(ROLE_INSTRUCTOR)) {
-            // Add match to previous aggregation
-            aggregationList.addFirst(Aggregation.match(Criteria.where("instructor").is(userId)));
-        } else if (auth.getAuthorities().contains(ROLE_STUDENT)) {
-            aggregationList.addFirst(Aggregation.match(Criteria.where("students").in(userId)));
+    // Get all courses (paginated by cursor, optionally filtered by category, published and instructor)
+    // view=preview returns CoursePreviewProjection (counts only, no lesson/activity/student joins)
+    // ETag from the ids of the page and the tags of their views, If-None-Match gets 304 without running the pipeline
+    @GetMapping
+    @Nullable
+    public ResponseEntity<CursorPage<?>> getAllCourses(
+            CourseFilter filter,
+            @RequestParam(required = false) ObjectId after,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "full") String view,
+            WebRequest request) {
+
+        int pageSize = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+        UserPrincipal user = UserPrincipal.current();
+        boolean preview = view.equals("preview");
+
+        // Ids of the page (same match, order and limit as the pipeline), read with the _id index only
+        Query pageQuery = Query.query(coursePipelines.pageCriteria(user, filter, after))
+                .with(Sort.by(Sort.Direction.ASC, "_id"))
+                .limit(pageSize + 1);
+        pageQuery.fields().include("_id");
+        List<ObjectId> ids = mongoTemplate.find(pageQuery, Course.class).stream()
+                .map(course -> new ObjectId(course.getId()))
+                .toList();
+        String etag = courseViewService.etag(ids, preview ? "preview" : "full").orElse(null);
+        if (etag != null && request.checkNotModified(etag)) {
+            return null;
         }
 
-        return ResponseEntity.ok(mongoTemplate.aggregate(
-                Aggregation.newAggregation(aggregationList),
-                "courses",
-                CourseProjection.class
-        ).getMappedResults());
+        CursorPage<?> page;
+        // Preview for list views
+        if (preview) {
+            List<CoursePreviewProjection> courses = mongoTemplate.aggregate(
+                    coursePipelines.coursePreviewPage(user, filter, after, pageSize),
+                    "courses",
+                    CoursePreviewProjection.class
+            ).getMappedResults();
+            page = CursorPage.of(courses, pageSize, CoursePreviewProjection::id);
+        } else {
+            // Role filter, filters and cursor are bound into a new pipeline (shared template stays untouched)
+            List<CourseProjection> courses = mongoTemplate.aggregate(
+                    coursePipelines.coursePage(user, filter, after, pageSize),
+                    "courses",
+                    CourseProjection.class
+            ).getMappedResults();
+            page = CursorPage.of(courses, pageSize, CourseProjection::id);
+        }
+        return etag == null ? ResponseEntity.ok(page) : ResponseEntity.ok().eTag(etag).body(page);
     }
 
-    // Get course by id
+    // Get course by id (ETag from the course view, If-None-Match gets 304 without reading the view)
     @GetMapping("/{courseId}")
     @Nullable
-    public ResponseEntity<CourseProjection> getCourseById(@PathVariable String courseId) {
+    public ResponseEntity<CourseProjection> getCourseById(@PathVariable String courseId, WebRequest request) {
         try {
 
             // Get current authentication
             var auth = SecurityContextHolder.getContext()
                     .getAuthentication();
 
-            // Get user id
-            ObjectId userId = new ObjectId(userRepository.findByEmail(auth.getName()).getId());
+            // Get user id (from authenticated principal, no database lookup)
+            UserPrincipal user = UserPrincipal.current();
+            ObjectId userId = user.objectId();
+            ObjectId id = new ObjectId(courseId);
 
-            // Dummy match for initialize
-            MatchOperation match = Aggregation.match(Criteria.where("_id").exists(true));
-
-            // Check user role
-            if (auth.getAuthorities().contains(ROLE_INSTRUCTOR)) {
-                match = Aggregation.match(Criteria.where("instructor").is(userId));
-            } else if (auth.getAuthorities().contains(ROLE_STUDENT)) {
-                match = Aggregation.match(Criteria.where("students").in(userId));
-            }
-
-            // Use MongoRepository for validations
-            Optional<Course> course = courseRepository.findById(courseId);
-
-            // Check if course exists
-            if (course.isEmpty()) {
+            // Denied by the enrollment index (no course document is loaded)
+            if (enrollmentIndex.deniesRead(id, user)) {
                 return ResponseEntity.notFound().build();
             }
-            // Check if user is enrolled
-            else if (
-                // Student
-                    (auth.getAuthorities().contains(ROLE_STUDENT)
-                            && !course.get().getStudents().contains(userId))
-                            // Instructor
-                            || (auth.getAuthorities().contains(ROLE_INSTRUCTOR)
-                            && !course.get().getInstructor().equals(userId))) {
-                return ResponseEntity.notFound().build();
-            }
-            // Check if course is published
-            else if (!course.get().isPublished()
-                    && auth.getAuthorities().contains(ROLE_STUDENT)) {
+
+            // Access is confirmed on the course (the index may miss writes of other instances): course for
+            // validations (MongoRepository) and ETag of the course view are read at the same time
+            Map.Entry<Boolean, Optional<String>> access = fanOut.both(
+                    () -> courseRepository.findById(courseId),
+                    () -> courseViewService.etag(id),
+                    (course, etag) -> Map.entry(course.isPresent() && canRead(course.get(), auth, userId), etag));
+            if (!access.getKey()) {
                 return ResponseEntity.notFound().build();
             }
-            // Return course
-            else {
-                LinkedList<AggregationOperation> aggregationList = courseAggregations;
-                // Add match and filter to previous aggregation
-                aggregationList.addFirst(match);
-                aggregationList.addFirst(Aggregation.match(Criteria.where("_id").is(courseId)));
-
-                return ResponseEntity.ok(mongoTemplate.aggregate(
-                        Aggregation.newAggregation(aggregationList),
-                        "courses",
-                        CourseProjection.class
-                ).getUniqueMappedResult());
-            }
+            return courseView(courseId, access.getValue(), request);
 
         } catch (Exception e) {
             return ResponseEntity.notFound().build();
         }
     }
 
+    // Same rules as EnrollmentIndex.canRead
+    private boolean canRead(Course course, Authentication auth, ObjectId userId) {
+        // Check if user is enrolled
+        if (
+            // Student
+                (auth.getAuthorities().contains(ROLE_STUDENT)
+                        && !course.getStudents().contains(userId))
+                        // Instructor
+                        || (auth.getAuthorities().contains(ROLE_INSTRUCTOR)
+                        && !course.getInstructor().equals(userId))) {
+            return false;
+        }
+        // Check if course is published
+        return course.isPublished() || !auth.getAuthorities().contains(ROLE_STUDENT);
+    }
+
+    // Course view with its ETag, null (304 already set) if the client's copy is current
+    @Nullable
+    private ResponseEntity<CourseProjection> courseView(String courseId, Optional<String> etag, WebRequest request) {
+        if (etag.isPresent() && request.checkNotModified(etag.get())) {
+            return null;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        etag.ifPresent(response::eTag);
+        return courseViewService.find(courseId)
+                .map(response::body)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
     // Get courses by instructor TODO: Deprecation with filter and pagination
     @PreAuthorize("hasRole('ADMIN')")
     @GetMapping("/instructor/{instructor}")
@@ -203,6 +201,14 @@ public class CourseController {
         return ResponseEntity.ok(courseRepository.findByInstructor(instructor));
     }
 
+    // Get courses by instructor as NDJSON (Accept: application/x-ndjson), streamed from the cursor
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(path = "/instructor/{instructor}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamCoursesByInstructor(@PathVariable ObjectId instructor) {
+        return Ndjson.response(() -> mongoTemplate.stream(
+                Query.query(Criteria.where("instructor").is(instructor)), Course.class), objectMapper);
+    }
+
     // Get courses by student TODO: Deprecation with filter and pagination
     @PreAuthorize("hasRole('ADMIN')")
     @GetMapping("/student/{student}")
@@ -210,10 +216,20 @@ public class CourseController {
         return ResponseEntity.ok(courseRepository.findByStudent(student));
     }
 
+    // Get courses by student as NDJSON (Accept: application/x-ndjson), streamed from the cursor
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(path = "/student/{student}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamCoursesByStudent(@PathVariable ObjectId student) {
+        return Ndjson.response(() -> mongoTemplate.stream(
+                Query.query(Criteria.where("students").is(student)), Course.class), objectMapper);
+    }
+
     // Create course
     @PreAuthorize("hasRole('ADMIN')")
     @PostMapping
     public ResponseEntity<Course> createCourse(@RequestBody @Valid Course course, UriComponentsBuilder uriComponentsBuilder) {
+        // Version is set on insert
+        course.setVersion(null);
         Course newCourse = courseRepository.save(course);
         URI url = uriComponentsBuilder.path("/courses/{id}")
                 .buildAndExpand(newCourse.getId())
@@ -224,8 +240,19 @@ public class CourseController {
     // Update course
     @PreAuthorize("hasRole('ADMIN') || hasRole('INSTRUCTOR')")
     @PutMapping("/{courseId}")
-    public ResponseEntity<Course> updateCourse(@PathVariable String courseId, @RequestBody @Valid Course course) {
+    // If-Match (ETag of GET /courses/{id}) is required (428 without it) and must hold the current course
+    // version. The save is conditional on that version, so a concurrent update gets 412 instead of being overwritten
+    public ResponseEntity<Course> updateCourse(@PathVariable String courseId, @RequestBody @Valid Course course,
+                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        if (ifMatch == null) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_REQUIRED).build();
+        }
         course.setId(courseId);
+        Long version = currentVersion(courseId);
+        if (version == null || !ETags.matchesVersion(ifMatch, version)) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        }
+        course.setVersion(version);
         return ResponseEntity.ok(courseRepository.save(course));
     }
 
@@ -234,6 +261,7 @@ public class CourseController {
     @DeleteMapping("/{courseId}")
     public ResponseEntity deleteCourse(@PathVariable String courseId) {
         courseRepository.deleteById(courseId);
+        courseProgressService.courseRemoved(new ObjectId(courseId));
         return ResponseEntity.noContent().build();
     }
 
@@ -254,5 +282,78 @@ public class CourseController {
         }
     }
 
+    // Progress
+
+    // Progress of the current student in the course (counters, no activity is read)
+    @PreAuthorize("hasRole('STUDENT')")
+    @GetMapping("/{courseId}/progress")
+    public ResponseEntity<CourseProgressProjection> getCourseProgress(@PathVariable ObjectId courseId) {
+        UserPrincipal user = UserPrincipal.current();
+        // Enrolled in the published course (same access as getCourseById), index denials skip the query
+        boolean enrolled = !enrollmentIndex.deniesRead(courseId, user) && mongoTemplate.exists(
+                Query.query(Criteria.where("_id").is(courseId)
+                        .and("students").is(user.objectId())
+                        .and("published").is(true)),
+                Course.class);
+        if (!enrolled) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(courseProgressService.find(courseId, user.objectId()));
+    }
+
+    // Progress of every student of the course
+    @PreAuthorize("hasRole('ADMIN') || hasRole('INSTRUCTOR')")
+    @GetMapping("/{courseId}/progress/all")
+    public ResponseEntity<List<CourseProgressProjection>> getAllCourseProgress(@PathVariable ObjectId courseId) {
+        Course course = visibleCourse(courseId, UserPrincipal.current());
+        if (course == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(courseProgressService.findAll(courseId, course.getStudents()));
+    }
+
+    // Rebuild all progress counters from completions and submissions
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/progress/rebuild")
+    public ResponseEntity<Long> rebuildCourseProgress() {
+        return ResponseEntity.ok(courseProgressService.rebuild());
+    }
+
+    // Version of a course (single field read), null if the course does not exist
+    @Nullable
+    private Long currentVersion(String courseId) {
+        Query query = Query.query(Criteria.where("_id").is(courseId));
+        query.fields().include("version");
+        Course course = mongoTemplate.findOne(query, Course.class);
+        return course == null ? null : course.getVersion();
+    }
+
+    // Course (only students) if visible for the user, null otherwise
+    @Nullable
+    private Course visibleCourse(ObjectId courseId, UserPrincipal user) {
+        Query query = Query.query(new Criteria().andOperator(
+                Criteria.where("_id").is(courseId),
+                coursePipelines.visibleTo(user)
+        ));
+        query.fields().include("students");
+        return mongoTemplate.findOne(query, Course.class);
+    }
+
+    // Course views
+
+    // Rebuild all materialized course views
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/views/rebuild")
+    public ResponseEntity<Long> rebuildCourseViews() {
+        return ResponseEntity.ok(courseViewService.rebuild());
+    }
+
+    // Check materialized course views against courses (repair=true refreshes/removes inconsistent views)
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/views/check")
+    public ResponseEntity<CourseViewReport> checkCourseViews(@RequestParam(defaultValue = "false") boolean repair) {
+        return ResponseEntity.ok(courseViewService.check(repair));
+    }
+
 
 }
@@ -0,0 +1,11 @@
+package com.klass.server.course;
+
+import org.bson.types.ObjectId;
+
+// Optional filters for course listing (bound from query params)
+public record CourseFilter(
+        String category,
+        Boolean published,
+        ObjectId instructor
+) {
+}
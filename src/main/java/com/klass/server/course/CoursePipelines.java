@@ -0,0 +1,165 @@
+package com.klass.server.course;
+
+import com.klass.server.common.aggregation.PipelineTemplate;
+import com.klass.server.common.security.UserPrincipal;
+import com.mongodb.lang.Nullable;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.aggregation.*;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Course aggregation pipelines, built once at startup and shared by all requests
+@Component
+public class CoursePipelines {
+
+    //=== Lookup aggregations for GET methods ===//
+
+    // Embed lessons in course
+    private final UnwindOperation unwindLessons = Aggregation.unwind("lessons", true);
+
+    private final LookupOperation lookupActivities = LookupOperation.newLookup()
+            .from("activities")
+            .localField("lessons.activities")
+            .foreignField("_id")
+            .as("lessons.activities");
+
+    private final GroupOperation groupLessons = Aggregation.group("_id")
+            .first("name").as("name")
+            .first("slug").as("slug")
+            .first("description").as("description")
+            .first("image").as("image")
+            .first("category").as("category")
+            .first("published").as("published")
+            .first("instructor").as("instructor")
+            .first("students").as("students")
+            .first("version").as("version")
+            .push("lessons").as("lessons");
+
+    // Embed instructor in course
+    private final LookupOperation lookupInstructor = LookupOperation.newLookup()
+            .from("users")
+            .localField("instructor")
+            .foreignField("_id")
+            .as("instructor");
+
+    private final UnwindOperation unwindInstructor = Aggregation.unwind("instructor", true);
+
+    // Embed students in course
+    private final LookupOperation lookupStudents = LookupOperation.newLookup()
+            .from("users")
+            .localField("students")
+            .foreignField("_id")
+            .as("students");
+
+    // All aggregations ordered
+    private final PipelineTemplate details = new PipelineTemplate(
+            // Lessons
+            unwindLessons,
+            lookupActivities,
+            groupLessons,
+            // Instructor
+            lookupInstructor,
+            unwindInstructor,
+            // Students
+            lookupStudents
+    );
+
+    // Course preview: only instructor is embedded, lists are reduced to counts
+    private final ProjectionOperation projectPreview = Aggregation.project(
+                    "name", "slug", "image", "category", "published", "instructor")
+            .and(ArrayOperators.Size.lengthOfArray(
+                    ConditionalOperators.ifNull("students").then(List.of()))).as("studentCount")
+            .and(ArrayOperators.Size.lengthOfArray(
+                    ConditionalOperators.ifNull("lessons").then(List.of()))).as("lessonCount")
+            // Sum of activities in every lesson
+            .and(context -> Document.parse("""
+                    { $sum: { $map: {
+                        input: { $ifNull: ["$lessons", []] },
+                        as: "lesson",
+                        in: { $size: { $ifNull: ["$$lesson.activities", []] } }
+                    } } }
+                    """)).as("activityCount");
+
+    private final PipelineTemplate preview = new PipelineTemplate(
+            projectPreview,
+            // Instructor
+            lookupInstructor,
+            unwindInstructor
+    );
+
+    // Courses visible for each role (admin sees all)
+    private final Map<String, Function<ObjectId, Criteria>> roleFilters = Map.of(
+            "admin", userId -> new Criteria(),
+            "instructor", userId -> Criteria.where("instructor").is(userId),
+            "student", userId -> Criteria.where("students").is(userId)
+    );
+
+    // Filter courses visible for the user
+    public Criteria visibleTo(UserPrincipal user) {
+        Function<ObjectId, Criteria> filter = roleFilters.get(user.role());
+        if (filter == null) {
+            throw new IllegalArgumentException("Unknown role: " + user.role());
+        }
+        return filter.apply(user.objectId());
+    }
+
+    // Page of courses visible for the user, filtered and paginated by _id (keyset)
+    // Filters, cursor and limit run before any $lookup, so page N costs the same as page 1
+    public Aggregation coursePage(UserPrincipal user, CourseFilter filter, @Nullable ObjectId after, int size) {
+        return details.bind(
+                List.of(
+                        Aggregation.match(pageCriteria(user, filter, after)),
+                        Aggregation.sort(Sort.Direction.ASC, "_id"),
+                        Aggregation.limit(size + 1L)
+                ),
+                // Group by lessons does not keep order
+                List.of(Aggregation.sort(Sort.Direction.ASC, "_id"))
+        );
+    }
+
+    // Page of course previews (no lesson, activity or student joins)
+    public Aggregation coursePreviewPage(UserPrincipal user, CourseFilter filter, @Nullable ObjectId after, int size) {
+        return preview.bind(
+                List.of(
+                        Aggregation.match(pageCriteria(user, filter, after)),
+                        Aggregation.sort(Sort.Direction.ASC, "_id"),
+                        Aggregation.limit(size + 1L)
+                ),
+                List.of()
+        );
+    }
+
+    // Match for a page of courses (role, filters and cursor)
+    public Criteria pageCriteria(UserPrincipal user, CourseFilter filter, @Nullable ObjectId after) {
+        List<Criteria> criteria = new ArrayList<>();
+        criteria.add(visibleTo(user));
+        if (filter.category() != null) {
+            criteria.add(Criteria.where("category").is(filter.category()));
+        }
+        if (filter.published() != null) {
+            criteria.add(Criteria.where("published").is(filter.published()));
+        }
+        if (filter.instructor() != null) {
+            criteria.add(Criteria.where("instructor").is(filter.instructor()));
+        }
+        if (after != null) {
+            criteria.add(Criteria.where("_id").gt(after));
+        }
+        return new Criteria().andOperator(criteria);
+    }
+
+    public PipelineTemplate details() {
+        return details;
+    }
+
+    public PipelineTemplate preview() {
+        return preview;
+    }
+}
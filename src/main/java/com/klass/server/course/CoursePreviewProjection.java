@@ -0,0 +1,26 @@
+package com.klass.server.course;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.klass.server.s3.ThumbnailUrls;
+import com.klass.server.s3.Thumbnails;
+import com.klass.server.user.UserProjection;
+
+
+// Basic preview of a course for list views (counts instead of embedded lessons and students)
+public record CoursePreviewProjection(
+        String id,
+        String name,
+        String slug,
+        String image,
+        String category,
+        boolean published,
+        UserProjection instructor,
+        int studentCount,
+        int lessonCount,
+        int activityCount
+) {
+    @JsonProperty
+    public ThumbnailUrls thumbnails() {
+        return Thumbnails.urls(image);
+    }
+}
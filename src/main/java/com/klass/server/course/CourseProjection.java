@@ -1,5 +1,8 @@
 package com.klass.server.course;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.klass.server.s3.ThumbnailUrls;
+import com.klass.server.s3.Thumbnails;
 import com.klass.server.user.UserProjection;
 
 import java.util.List;
@@ -16,6 +19,8 @@ public record CourseProjection(
         List<UserProjection> students,
         List<LessonProjection> lessons
 ) {
-
-
+    @JsonProperty
+    public ThumbnailUrls thumbnails() {
+        return Thumbnails.urls(image);
+    }
 }
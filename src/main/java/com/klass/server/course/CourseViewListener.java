@@ -0,0 +1,57 @@
+package com.klass.server.course;
+
+import com.klass.server.activity.Activity;
+import com.klass.server.user.User;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+// Keeps course_views in sync with repository writes on courses, activities and users
+// (MongoTemplate writes on activities mark views stale with CourseViewService.markStale)
+@Component
+public class CourseViewListener extends AbstractMongoEventListener<Object> {
+
+    @Autowired
+    CourseViewService courseViewService;
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        if (event.getSource() instanceof Course course) {
+            courseViewService.refreshCourse(course.getId());
+        } else if (event.getSource() instanceof Activity activity) {
+            courseViewService.refreshForActivity(new ObjectId(activity.getId()));
+        } else if (event.getSource() instanceof User user) {
+            courseViewService.refreshForUser(user);
+        }
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Object> event) {
+        ObjectId id = idOf(event.getDocument());
+        if (id == null) {
+            return;
+        }
+        if (Course.class.equals(event.getType())) {
+            courseViewService.remove(id);
+        } else if (Activity.class.equals(event.getType())) {
+            courseViewService.refreshForActivity(id);
+        } else if (User.class.equals(event.getType())) {
+            courseViewService.refreshForUser(id);
+        }
+    }
+
+    // Id from delete query (deleteById), null for other deletes
+    static ObjectId idOf(Document query) {
+        Object id = query == null ? null : query.get("_id");
+        if (id instanceof ObjectId objectId) {
+            return objectId;
+        } else if (id instanceof String value && ObjectId.isValid(value)) {
+            return new ObjectId(value);
+        }
+        return null;
+    }
+}
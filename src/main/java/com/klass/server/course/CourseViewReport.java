@@ -0,0 +1,14 @@
+package com.klass.server.course;
+
+import java.util.List;
+
+// Consistency report between courses and their materialized views
+public record CourseViewReport(
+        long courses,
+        long views,
+        List<String> missing,
+        List<String> stale,
+        List<String> orphaned,
+        boolean repaired
+) {
+}
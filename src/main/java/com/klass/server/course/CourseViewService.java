@@ -0,0 +1,230 @@
+package com.klass.server.course;
+
+import com.klass.server.common.versioning.ETags;
+import com.klass.server.user.User;
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+// Materialized course details (course_views collection), shaped like CourseProjection
+// Views are refreshed on the server with $merge whenever a write touches the course,
+// so reading course details is a single findById
+@Service
+public class CourseViewService {
+
+    static final String COLLECTION = "course_views";
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Autowired
+    CoursePipelines coursePipelines;
+
+    // Stages after course details lookups
+    private final List<AggregationOperation> viewStages = List.of(
+            // Do not copy credentials of embedded users
+            Aggregation.project().andExclude(
+                    "instructor.password", "instructor.passwordResetCode",
+                    "students.password", "students.passwordResetCode"),
+            context -> new Document("$addFields", new Document("refreshedAt", "$$NOW")),
+            Aggregation.merge()
+                    .intoCollection(COLLECTION)
+                    .whenDocumentsMatch(MergeOperation.WhenDocumentsMatch.replaceDocument())
+                    .whenDocumentsDontMatch(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+                    .build()
+    );
+
+    // Views of an activity are found through their embedded activities
+    @PostConstruct
+    void createIndexes() {
+        mongoTemplate.indexOps(COLLECTION).ensureIndex(
+                new Index().on("lessons.activities._id", Sort.Direction.ASC).named("lessons_activities"));
+    }
+
+    // Get course details from view (built on first read if missing or stale)
+    public Optional<CourseProjection> find(String courseId) {
+        CourseProjection view = mongoTemplate.findOne(
+                Query.query(Criteria.where("_id").is(courseId).and("stale").ne(true)), CourseProjection.class, COLLECTION);
+        if (view == null) {
+            refreshCourse(courseId);
+            view = mongoTemplate.findById(courseId, CourseProjection.class, COLLECTION);
+        }
+        return Optional.ofNullable(view);
+    }
+
+    // ETag of a course view: course version and view refresh date (views are refreshed on course,
+    // activity and user writes). Only these two fields are read, no pipeline runs
+    public Optional<String> etag(ObjectId courseId) {
+        return Optional.ofNullable(tags(List.of(courseId)).get(courseId)).map(ETags::of);
+    }
+
+    // ETag of a page of course views (ids in page order, variant is the projection returned), empty if a
+    // view cannot be tagged. Only the tag fields of the views are read, no pipeline runs
+    public Optional<String> etag(List<ObjectId> courseIds, String variant) {
+        Map<ObjectId, String> tags = tags(courseIds);
+        List<String> parts = new ArrayList<>();
+        parts.add(variant);
+        for (ObjectId courseId : courseIds) {
+            String tag = tags.get(courseId);
+            if (tag == null) {
+                return Optional.empty();
+            }
+            parts.add(courseId.toHexString() + ":" + tag);
+        }
+        return Optional.of(ETags.ofAll(parts));
+    }
+
+    // Course id -> "<version>.<refreshedAt>", views missing, stale or built before versioning are refreshed first
+    private Map<ObjectId, String> tags(List<ObjectId> courseIds) {
+        Query query = Query.query(Criteria.where("_id").in(courseIds).and("stale").ne(true));
+        query.fields().include("_id", "version", "refreshedAt");
+        Map<ObjectId, String> tags = new HashMap<>();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            for (Document view : mongoTemplate.find(query, Document.class, COLLECTION)) {
+                if (view.get("version") != null && view.getDate("refreshedAt") != null) {
+                    tags.put(view.getObjectId("_id"), view.get("version") + "." + view.getDate("refreshedAt").getTime());
+                }
+            }
+            List<ObjectId> untagged = courseIds.stream().filter(id -> !tags.containsKey(id)).toList();
+            if (untagged.isEmpty() || attempt > 0) {
+                break;
+            }
+            refresh(Criteria.where("_id").in(untagged));
+        }
+        return tags;
+    }
+
+    // Refresh views of courses matching criteria
+    public void refresh(Criteria courses) {
+        mongoTemplate.aggregate(
+                coursePipelines.details().bind(List.of(Aggregation.match(courses)), viewStages),
+                "courses",
+                Document.class
+        );
+    }
+
+    public void refreshCourse(String courseId) {
+        refresh(Criteria.where("_id").is(courseId));
+    }
+
+    // Courses containing the activity (lesson previews embed its name, type and availability)
+    public void refreshForActivity(ObjectId activityId) {
+        refresh(Criteria.where("lessons.activities").is(activityId));
+    }
+
+    // Activities changed by a write that skips repository events (completion marks, submissions, grades):
+    // views embedding them are marked stale and refreshed on their next read, the write itself stays cheap
+    public void markStale(Collection<ObjectId> activityIds) {
+        if (!activityIds.isEmpty()) {
+            mongoTemplate.updateMulti(Query.query(Criteria.where("lessons.activities._id").in(activityIds)),
+                    Update.update("stale", true), COLLECTION);
+        }
+    }
+
+    // User saved: only views embedding the user with other projected fields (name, email, picture...)
+    // are refreshed, saves changing nothing shown in a course (password, reset code) refresh nothing
+    public void refreshForUser(User user) {
+        ObjectId userId = new ObjectId(user.getId());
+        Query changed = Query.query(new Criteria().orOperator(
+                Criteria.where("instructor._id").is(userId).orOperator(changed("instructor.", user)),
+                Criteria.where("students").elemMatch(Criteria.where("_id").is(userId).orOperator(changed("", user)))
+        ));
+        changed.fields().include("_id");
+        List<Object> courseIds = mongoTemplate.find(changed, Document.class, COLLECTION).stream()
+                .map(view -> view.get("_id"))
+                .toList();
+        if (!courseIds.isEmpty()) {
+            refresh(Criteria.where("_id").in(courseIds));
+        }
+    }
+
+    // Embedded user differs in a projected field (UserProjection)
+    private static Criteria[] changed(String prefix, User user) {
+        return new Criteria[]{
+                Criteria.where(prefix + "name").ne(user.getName()),
+                Criteria.where(prefix + "lastName").ne(user.getLastName()),
+                Criteria.where(prefix + "email").ne(user.getEmail()),
+                Criteria.where(prefix + "role").ne(user.getRole()),
+                Criteria.where(prefix + "picture").ne(user.getPicture())
+        };
+    }
+
+    // Courses where user is instructor or student (user deleted)
+    public void refreshForUser(ObjectId userId) {
+        refresh(new Criteria().orOperator(
+                Criteria.where("instructor").is(userId),
+                Criteria.where("students").is(userId)
+        ));
+    }
+
+    public void remove(Object courseId) {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(courseId)), COLLECTION);
+    }
+
+    // Rebuild all views and remove orphaned ones, returns number of views
+    public long rebuild() {
+        refresh(new Criteria());
+        check(true);
+        return mongoTemplate.count(new Query(), COLLECTION);
+    }
+
+    // Compare courses and views, optionally refreshing missing/stale and removing orphaned views
+    public CourseViewReport check(boolean repair) {
+        // Refresh date of every view
+        Map<String, Date> views = new HashMap<>();
+        Query viewQuery = new Query();
+        viewQuery.fields().include("_id", "refreshedAt");
+        try (Stream<Document> stream = mongoTemplate.stream(viewQuery, Document.class, COLLECTION)) {
+            stream.forEach(view -> views.put(view.get("_id").toString(), view.getDate("refreshedAt")));
+        }
+
+        List<String> missing = new ArrayList<>();
+        List<String> stale = new ArrayList<>();
+        long courses = 0;
+        Query courseQuery = new Query();
+        courseQuery.fields().include("_id", "lastModifiedDate");
+        try (Stream<Document> stream = mongoTemplate.stream(courseQuery, Document.class, "courses")) {
+            for (Document course : (Iterable<Document>) stream::iterator) {
+                courses++;
+                String id = course.get("_id").toString();
+                Date modified = course.getDate("lastModifiedDate");
+                if (!views.containsKey(id)) {
+                    missing.add(id);
+                } else if (modified != null
+                        && (views.get(id) == null || modified.after(views.get(id)))) {
+                    stale.add(id);
+                }
+                views.remove(id);
+            }
+        }
+        // Views left have no course
+        List<String> orphaned = new ArrayList<>(views.keySet());
+
+        if (repair) {
+            List<ObjectId> outdated = Stream.concat(missing.stream(), stale.stream())
+                    .map(ObjectId::new)
+                    .toList();
+            if (!outdated.isEmpty()) {
+                refresh(Criteria.where("_id").in(outdated));
+            }
+            orphaned.forEach(id -> remove(new ObjectId(id)));
+        }
+
+        return new CourseViewReport(courses, courses - missing.size() + orphaned.size(),
+                missing, stale, orphaned, repair);
+    }
+}
@@ -0,0 +1,202 @@
+package com.klass.server.course;
+
+import com.klass.server.common.security.UserPrincipal;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Compact in-memory enrollments (course -> students and student -> courses) for access checks
+// Users and courses get dense ordinals, so each course keeps its students as a BitSet (and each student
+// its courses): membership is a bit test and no course document is loaded
+// Synced with course saves/deletes of this instance and rebuilt from Mongo at startup and every
+// refresh interval (writes of other instances). Until then a write of another instance is not seen, so the
+// index only answers denials: access it would grant is always confirmed by Mongo (as for courses not indexed)
+@Component
+public class EnrollmentIndex extends AbstractMongoEventListener<Course> implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(EnrollmentIndex.class);
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Value("${courses.enrollment-index.enabled:true}")
+    boolean enabled;
+
+    // Access data of a course (students BitSet is never modified once published)
+    record Enrollment(int ordinal, ObjectId instructor, boolean published, BitSet students) {
+    }
+
+    // Ordinals and enrollments, replaced as a whole on rebuild
+    private static final class State {
+        final Map<ObjectId, Integer> users = new ConcurrentHashMap<>();
+        final Map<ObjectId, Enrollment> courses = new ConcurrentHashMap<>();
+        // Course ordinal -> id
+        final Map<Integer, ObjectId> courseIds = new ConcurrentHashMap<>();
+        // User ordinal -> course ordinals (copied on write, like Enrollment.students)
+        final Map<Integer, BitSet> studentCourses = new ConcurrentHashMap<>();
+        int nextUser = 0;
+        int nextCourse = 0;
+    }
+
+    // Null until first build
+    private volatile State state;
+
+    // Writes (saves, deletes and rebuilds) hold this lock, reads do not
+    private final Object writeLock = new Object();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            rebuild();
+        }
+    }
+
+    //=== Reads ===//
+
+    // Whether the index knows the user cannot read the course (same rules as getCourseById: students must be
+    // enrolled in the published course, instructors must teach it). False when the course is not indexed
+    // A denial is stale at most until the next refresh (student enrolled by another instance meanwhile)
+    public boolean deniesRead(ObjectId courseId, UserPrincipal user) {
+        State current = readable();
+        Enrollment enrollment = current == null ? null : current.courses.get(courseId);
+        if (enrollment == null) {
+            return false;
+        }
+        return switch (user.role()) {
+            case "student" -> !enrollment.published() || !contains(current, enrollment, user.objectId());
+            case "instructor" -> !user.objectId().equals(enrollment.instructor());
+            default -> false;
+        };
+    }
+
+    // Courses of a student, empty if the index is not built
+    public Optional<List<ObjectId>> coursesOf(ObjectId studentId) {
+        State current = readable();
+        if (current == null) {
+            return Optional.empty();
+        }
+        Integer ordinal = current.users.get(studentId);
+        BitSet courses = ordinal == null ? null : current.studentCourses.get(ordinal);
+        if (courses == null) {
+            return Optional.of(List.of());
+        }
+        return Optional.of(courses.stream().mapToObj(current.courseIds::get).filter(Objects::nonNull).toList());
+    }
+
+    private static boolean contains(State state, Enrollment enrollment, ObjectId studentId) {
+        Integer ordinal = state.users.get(studentId);
+        return ordinal != null && enrollment.students().get(ordinal);
+    }
+
+    private State readable() {
+        return enabled ? state : null;
+    }
+
+    //=== Writes ===//
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Course> event) {
+        if (enabled && state != null) {
+            Course course = event.getSource();
+            synchronized (writeLock) {
+                put(state, new ObjectId(course.getId()), course.getInstructor(), course.isPublished(), course.getStudents());
+            }
+        }
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Course> event) {
+        ObjectId courseId = CourseViewListener.idOf(event.getDocument());
+        if (enabled && state != null && courseId != null) {
+            synchronized (writeLock) {
+                remove(state, courseId);
+            }
+        }
+    }
+
+    // Rebuild from courses (only access fields are read), returns number of indexed courses
+    @Scheduled(initialDelayString = "${courses.enrollment-index.refresh-interval:PT10M}",
+            fixedDelayString = "${courses.enrollment-index.refresh-interval:PT10M}")
+    public int rebuild() {
+        if (!enabled) {
+            return 0;
+        }
+        Query query = new Query();
+        query.fields().include("_id", "instructor", "published", "students");
+        // Saves during the rebuild wait, so none is lost when the new state replaces the old one
+        synchronized (writeLock) {
+            try (Stream<Course> courses = mongoTemplate.stream(query, Course.class)) {
+                int indexed = build(courses.iterator());
+                log.debug("Enrollment index built: {} courses, {} users", indexed, state.users.size());
+                return indexed;
+            }
+        }
+    }
+
+    // Build a new state from courses and publish it
+    int build(Iterator<Course> courses) {
+        synchronized (writeLock) {
+            State built = new State();
+            while (courses.hasNext()) {
+                Course course = courses.next();
+                put(built, new ObjectId(course.getId()), course.getInstructor(), course.isPublished(), course.getStudents());
+            }
+            state = built;
+            return built.courses.size();
+        }
+    }
+
+    private static void put(State state, ObjectId courseId, ObjectId instructor, boolean published, List<ObjectId> students) {
+        Enrollment previous = state.courses.get(courseId);
+        int ordinal = previous != null ? previous.ordinal() : state.nextCourse++;
+        state.courseIds.put(ordinal, courseId);
+
+        BitSet enrolled = new BitSet();
+        for (ObjectId student : students == null ? List.<ObjectId>of() : students) {
+            enrolled.set(state.users.computeIfAbsent(student, id -> state.nextUser++));
+        }
+        BitSet before = previous != null ? previous.students() : new BitSet();
+        // Students added and removed
+        BitSet added = (BitSet) enrolled.clone();
+        added.andNot(before);
+        BitSet removed = (BitSet) before.clone();
+        removed.andNot(enrolled);
+        added.stream().forEach(user -> updateStudent(state, user, ordinal, true));
+        removed.stream().forEach(user -> updateStudent(state, user, ordinal, false));
+
+        state.courses.put(courseId, new Enrollment(ordinal, instructor, published, enrolled));
+    }
+
+    private static void remove(State state, ObjectId courseId) {
+        Enrollment previous = state.courses.remove(courseId);
+        if (previous != null) {
+            previous.students().stream().forEach(user -> updateStudent(state, user, previous.ordinal(), false));
+            state.courseIds.remove(previous.ordinal());
+        }
+    }
+
+    private static void updateStudent(State state, int user, int course, boolean enrolled) {
+        BitSet courses = (BitSet) state.studentCourses.getOrDefault(user, new BitSet()).clone();
+        courses.set(course, enrolled);
+        if (courses.isEmpty()) {
+            state.studentCourses.remove(user);
+        } else {
+            state.studentCourses.put(user, courses);
+        }
+    }
+}
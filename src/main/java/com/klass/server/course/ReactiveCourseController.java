@@ -0,0 +1,107 @@
+package com.klass.server.course;
+
+import com.klass.server.common.pagination.CursorPage;
+import com.klass.server.common.security.UserPrincipal;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+// Non-blocking variant of the course read endpoints (same shapes and access rules as CourseController)
+// No thread waits for Mongo while a request is in progress, so slow clients and slow queries do not pile up threads
+// (Mono results are completed through servlet async by Spring MVC, see ReactiveActivityController)
+@RestController
+@RequestMapping("/reactive/courses")
+public class ReactiveCourseController {
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Autowired
+    public ReactiveCourseController(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    @Autowired
+    CoursePipelines coursePipelines;
+
+    @Autowired
+    EnrollmentIndex enrollmentIndex;
+
+    // Get all courses (same parameters as GET /courses)
+    @GetMapping
+    public Mono<ResponseEntity<CursorPage<?>>> getAllCourses(
+            CourseFilter filter,
+            @RequestParam(required = false) ObjectId after,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "full") String view) {
+
+        int pageSize = Math.min(Math.max(size, 1), CourseController.MAX_PAGE_SIZE);
+        // Read on the request thread (security context is not available in later stages)
+        UserPrincipal user = UserPrincipal.current();
+
+        if (view.equals("preview")) {
+            return reactiveMongoTemplate.aggregate(
+                            coursePipelines.coursePreviewPage(user, filter, after, pageSize),
+                            "courses",
+                            CoursePreviewProjection.class)
+                    .collectList()
+                    .map(courses -> ResponseEntity.ok(CursorPage.of(courses, pageSize, CoursePreviewProjection::id)));
+        }
+        return reactiveMongoTemplate.aggregate(
+                        coursePipelines.coursePage(user, filter, after, pageSize),
+                        "courses",
+                        CourseProjection.class)
+                .collectList()
+                .map(courses -> ResponseEntity.ok(CursorPage.of(courses, pageSize, CourseProjection::id)));
+    }
+
+    // Get course by id
+    @GetMapping("/{courseId}")
+    public Mono<ResponseEntity<CourseProjection>> getCourseById(@PathVariable String courseId) {
+        if (!ObjectId.isValid(courseId)) {
+            return Mono.just(ResponseEntity.notFound().build());
+        }
+        UserPrincipal user = UserPrincipal.current();
+
+        // Course visible for the user (enrolled student or instructor, published for students)
+        List<Criteria> access = new ArrayList<>();
+        access.add(Criteria.where("_id").is(new ObjectId(courseId)));
+        access.add(coursePipelines.visibleTo(user));
+        if (user.role().equals("student")) {
+            access.add(Criteria.where("published").is(true));
+        }
+        // Denials come from the enrollment index, access is always confirmed by Mongo
+        Mono<Boolean> visible = enrollmentIndex.deniesRead(new ObjectId(courseId), user)
+                ? Mono.just(false)
+                : reactiveMongoTemplate.exists(Query.query(new Criteria().andOperator(access)), Course.class);
+
+        // Access check and view read run at the same time (stale views are not served)
+        Mono<Optional<CourseProjection>> view = reactiveMongoTemplate
+                .findOne(Query.query(Criteria.where("_id").is(courseId).and("stale").ne(true)),
+                        CourseProjection.class, CourseViewService.COLLECTION)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+
+        return Mono.zip(visible, view)
+                .flatMap(result -> {
+                    if (!result.getT1()) {
+                        return Mono.<CourseProjection>empty();
+                    }
+                    // View not built yet or stale, run the details pipeline
+                    return result.getT2().map(Mono::just).orElseGet(() -> reactiveMongoTemplate.aggregate(
+                            coursePipelines.details().bind(Criteria.where("_id").is(new ObjectId(courseId))),
+                            "courses",
+                            CourseProjection.class).next());
+                })
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+}
@@ -0,0 +1,15 @@
+package com.klass.server.s3;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+// S3 object copied to the local media cache
+public record CachedMedia(
+        String key,
+        Path path,
+        long size,
+        String eTag,
+        String contentType,
+        Instant fetchedAt
+) {
+}
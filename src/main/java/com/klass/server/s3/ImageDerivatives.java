@@ -0,0 +1,188 @@
+package com.klass.server.s3;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.*;
+
+// Generates thumbnails of uploaded images in the background (bounded pool, uploads never wait for it)
+// The original is read back from S3, so it works for every upload path
+@Component
+public class ImageDerivatives {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageDerivatives.class);
+
+    private final S3Client s3Client;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final String bucketName;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Counter dropped;
+
+    public ImageDerivatives(S3Client s3Client,
+                            MongoTemplate mongoTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${aws.s3.bucket.name}") String bucketName,
+                            @Value("${aws.s3.thumbnails.threads:2}") int threads,
+                            @Value("${aws.s3.thumbnails.max-queued:100}") int maxQueued) {
+        this.s3Client = s3Client;
+        this.mongoTemplate = mongoTemplate;
+        this.bucketName = bucketName;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxQueued), runnable -> {
+            Thread thread = new Thread(runnable, "image-derivatives");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("s3.thumbnails.queued", executor, pool -> pool.getQueue().size())
+                .register(meterRegistry);
+        dropped = Counter.builder("s3.thumbnails.dropped")
+                .description("Thumbnail tasks dropped because the queue was full")
+                .register(meterRegistry);
+    }
+
+    // Queue thumbnail generation for an uploaded file (ignored if it is not an image)
+    public void generate(String key, String contentType) {
+        if (contentType == null || !contentType.startsWith("image/")) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generateNow(key);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Failed to generate thumbnails of {}", key, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Original image is served instead
+            dropped.increment();
+        }
+    }
+
+    // Write every thumbnail size, then flag the file so GET /s3/thumbnails serves them
+    void generateNow(String key) throws IOException {
+        BufferedImage original = read(key);
+        if (original == null) {
+            return;
+        }
+        for (int size : Thumbnails.SIZES) {
+            byte[] jpeg = jpeg(scale(original, size));
+            s3Client.putObject(PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(Thumbnails.key(key, size))
+                    .contentType("image/jpeg")
+                    .contentLength((long) jpeg.length)
+                    .build(), RequestBody.fromBytes(jpeg));
+        }
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(key)),
+                Update.update("thumbnails", true), StoredFile.class);
+    }
+
+    // Decode image, subsampled while reading so large photos are not fully decoded in memory
+    private BufferedImage read(String key) throws IOException {
+        try (ResponseInputStream<GetObjectResponse> object = s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build());
+             ImageInputStream input = ImageIO.createImageInputStream(object)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                // Not a format ImageIO can read
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                // Keep at least twice the largest thumbnail size
+                int step = Math.max(1, longest / (2 * Thumbnails.SIZES.get(Thumbnails.SIZES.size() - 1)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Fit in size x size keeping aspect ratio (never upscaled), transparency flattened on white
+    static BufferedImage scale(BufferedImage original, int size) {
+        double ratio = Math.min(1.0, (double) size / Math.max(original.getWidth(), original.getHeight()));
+        int width = Math.max(1, (int) Math.round(original.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(original.getHeight() * ratio));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(original, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static byte[] jpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return output.toByteArray();
+    }
+
+    // Delete thumbnails of a deleted file (in the background, missing ones are ignored by S3)
+    public void delete(String key) {
+        try {
+            executor.execute(() -> {
+                try {
+                    s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                            .bucket(bucketName)
+                            .delete(Delete.builder()
+                                    .objects(Thumbnails.SIZES.stream()
+                                            .map(size -> ObjectIdentifier.builder().key(Thumbnails.key(key, size)).build())
+                                            .toList())
+                                    .quiet(true)
+                                    .build())
+                            .build());
+                } catch (S3Exception e) {
+                    log.warn("Failed to delete thumbnails of {}", key, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,118 @@
+package com.klass.server.s3;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Async request body reading an InputStream of known length in small chunks, only as fast as S3 requests them
+// The stream can only be sent once (a retried request fails instead of sending partial content)
+class InputStreamAsyncRequestBody implements AsyncRequestBody {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream inputStream;
+
+    private final long contentLength;
+
+    private final Executor executor;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    InputStreamAsyncRequestBody(InputStream inputStream, long contentLength, Executor executor) {
+        this.inputStream = inputStream;
+        this.contentLength = contentLength;
+        this.executor = executor;
+    }
+
+    @Override
+    public Optional<Long> contentLength() {
+        return Optional.of(contentLength);
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IOException("Upload stream can only be sent once"));
+            return;
+        }
+        subscriber.onSubscribe(new ChunkSubscription(subscriber));
+    }
+
+    private class ChunkSubscription implements Subscription {
+
+        private final Subscriber<? super ByteBuffer> subscriber;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private volatile boolean done;
+
+        private ChunkSubscription(Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                done = true;
+                subscriber.onError(new IllegalArgumentException("Requested chunks must be positive"));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        // Read and emit chunks on the executor while there is demand (one reader at a time)
+        private void drain() {
+            if (done || !draining.compareAndSet(false, true)) {
+                return;
+            }
+            executor.execute(() -> {
+                try {
+                    while (!done && demand.get() > 0) {
+                        byte[] chunk = inputStream.readNBytes(CHUNK_SIZE);
+                        if (chunk.length == 0) {
+                            done = true;
+                            subscriber.onComplete();
+                            break;
+                        }
+                        demand.decrementAndGet();
+                        subscriber.onNext(ByteBuffer.wrap(chunk));
+                    }
+                } catch (IOException e) {
+                    done = true;
+                    subscriber.onError(e);
+                } finally {
+                    draining.set(false);
+                }
+                // Demand added while finishing the loop
+                if (!done && demand.get() > 0) {
+                    drain();
+                }
+            });
+        }
+    }
+}
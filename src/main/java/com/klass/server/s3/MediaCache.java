@@ -0,0 +1,235 @@
+package com.klass.server.s3;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Size-bounded LRU cache of S3 objects on local disk (popular lecture media is fetched from S3 once)
+// Concurrent misses on the same key share one fetch. Entries are revalidated with a HEAD after revalidate-after,
+// so replaced or deleted objects stop being served
+@Component
+@ConditionalOnProperty(name = "aws.s3.stream.enabled", havingValue = "true")
+public class MediaCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaCache.class);
+
+    private final S3Client s3Client;
+
+    private final String bucketName;
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    // Larger objects are not cached (served from S3)
+    private final long maxEntryBytes;
+
+    private final Duration revalidateAfter;
+
+    // Access-ordered: eldest entry is the least recently used
+    private final LinkedHashMap<String, CachedMedia> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes = 0;
+
+    // Fetches in progress (single flight per key)
+    private final Map<String, CompletableFuture<Optional<CachedMedia>>> fetches = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    public MediaCache(S3Client s3Client,
+                      MeterRegistry meterRegistry,
+                      @Value("${aws.s3.bucket.name}") String bucketName,
+                      @Value("${aws.s3.stream.cache-dir:${java.io.tmpdir}/klass-media}") Path directory,
+                      @Value("${aws.s3.stream.cache-size:4GB}") DataSize maxSize,
+                      @Value("${aws.s3.stream.max-entry-size:512MB}") DataSize maxEntrySize,
+                      @Value("${aws.s3.stream.revalidate-after:5m}") Duration revalidateAfter) throws IOException {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.directory = directory;
+        this.maxBytes = maxSize.toBytes();
+        this.maxEntryBytes = Math.min(maxEntrySize.toBytes(), maxBytes);
+        this.revalidateAfter = revalidateAfter;
+
+        // Index is kept in memory, files of a previous run are not reused
+        FileSystemUtils.deleteRecursively(directory);
+        Files.createDirectories(directory);
+
+        hits = Counter.builder("s3.stream.cache.requests").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("s3.stream.cache.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("s3.stream.cache.size", this, MediaCache::bytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    // Local copy of object, fetched from S3 on a miss
+    // Empty when the object is too large to cache, FileNotFoundException when it does not exist
+    public Optional<CachedMedia> get(String key) throws IOException {
+        CachedMedia cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        if (cached != null && cached.fetchedAt().plus(revalidateAfter).isAfter(Instant.now())) {
+            hits.increment();
+            return Optional.of(cached);
+        }
+
+        CompletableFuture<Optional<CachedMedia>> fetch = new CompletableFuture<>();
+        CompletableFuture<Optional<CachedMedia>> running = fetches.putIfAbsent(key, fetch);
+        if (running != null) {
+            // Same object is being fetched by another request
+            return join(running);
+        }
+        try {
+            fetch.complete(load(key, cached));
+        } catch (IOException | RuntimeException e) {
+            fetch.completeExceptionally(e);
+        } finally {
+            fetches.remove(key, fetch);
+        }
+        return join(fetch);
+    }
+
+    private Optional<CachedMedia> load(String key, CachedMedia stale) throws IOException {
+        HeadObjectResponse head;
+        try {
+            head = s3Client.headObject(HeadObjectRequest.builder().bucket(bucketName).key(key).build());
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                remove(key);
+                throw new FileNotFoundException("File not found: " + key);
+            }
+            throw e;
+        }
+
+        // Unchanged object, keep local copy
+        if (stale != null && stale.eTag().equals(head.eTag())) {
+            hits.increment();
+            CachedMedia revalidated = new CachedMedia(key, stale.path(), stale.size(), stale.eTag(),
+                    stale.contentType(), Instant.now());
+            synchronized (this) {
+                if (entries.get(key) == stale) {
+                    entries.put(key, revalidated);
+                }
+            }
+            return Optional.of(revalidated);
+        }
+
+        misses.increment();
+        if (head.contentLength() > maxEntryBytes) {
+            return Optional.empty();
+        }
+
+        Path temp = Files.createTempFile(directory, "fetch-", ".tmp");
+        try {
+            // If-Match: object replaced since the HEAD fails instead of caching a mismatched size/ETag
+            try (ResponseInputStream<GetObjectResponse> object = s3Client.getObject(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .ifMatch(head.eTag())
+                    .build())) {
+                Files.copy(object, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            // New file per fetch, a replaced copy may still be read by a running response
+            Path path = directory.resolve(fileName(key) + "-" + UUID.randomUUID());
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            CachedMedia media = new CachedMedia(key, path, head.contentLength(), head.eTag(),
+                    Objects.requireNonNullElse(head.contentType(), "application/octet-stream"), Instant.now());
+            put(media);
+            return Optional.of(media);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private synchronized void put(CachedMedia media) {
+        CachedMedia previous = entries.put(media.key(), media);
+        if (previous != null) {
+            bytes -= previous.size();
+            delete(previous);
+        }
+        bytes += media.size();
+
+        // Evict least recently used entries
+        Iterator<CachedMedia> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            CachedMedia evicted = eldest.next();
+            if (evicted == media) {
+                continue;
+            }
+            eldest.remove();
+            bytes -= evicted.size();
+            delete(evicted);
+        }
+    }
+
+    private synchronized void remove(String key) {
+        CachedMedia removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.size();
+            delete(removed);
+        }
+    }
+
+    // Open channels keep reading a deleted file, so responses in progress are not cut
+    private static void delete(CachedMedia media) {
+        try {
+            Files.deleteIfExists(media.path());
+        } catch (IOException e) {
+            log.warn("Failed to delete cached file {}", media.path(), e);
+        }
+    }
+
+    private synchronized long bytes() {
+        return bytes;
+    }
+
+    // Keys contain slashes, file names are derived from their hash
+    private static String fileName(String key) {
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static Optional<CachedMedia> join(CompletableFuture<Optional<CachedMedia>> fetch) throws IOException {
+        try {
+            return fetch.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            } else if (e.getCause() instanceof UncheckedIOException cause) {
+                throw cause.getCause();
+            } else if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.klass.server.s3;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Deletes S3 objects no longer referenced by any document (courses, activities, submissions, users)
+// Referenced keys are read once per run (references normalized to object keys), then keys are listed page by
+// page. Objects newer than the grace period are kept (uploads not attached to a document yet), and an orphan
+// is only deleted when an earlier run already found it at least delete-after ago (marks in sweeper_orphans)
+// Reads and deletes are rate limited, so sweeps do not compete with requests
+@Component
+public class OrphanSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(OrphanSweeper.class);
+
+    // Orphan keys listed in a report
+    private static final int MAX_REPORTED_KEYS = 1000;
+
+    // Orphans found by earlier runs (key, first and last time found)
+    static final String MARKS = "sweeper_orphans";
+
+    // Fields holding S3 keys or urls (S3, presigned, CDN or thumbnail urls, normalized to keys)
+    private static final Map<String, String> REFERENCES = Map.of(
+            "courses", "image",
+            "activities", "content",
+            "submissions", "file",
+            "users", "picture"
+    );
+
+    private final S3Client s3Client;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final String bucketName;
+
+    private final Duration gracePeriod;
+
+    private final int batchSize;
+
+    private final double maxDeletesPerSecond;
+
+    private final double maxReadsPerSecond;
+
+    private final Duration deleteAfter;
+
+    private final boolean scheduledDryRun;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public OrphanSweeper(S3Client s3Client,
+                         MongoTemplate mongoTemplate,
+                         @Value("${aws.s3.bucket.name}") String bucketName,
+                         @Value("${aws.s3.sweeper.grace-period:7d}") Duration gracePeriod,
+                         @Value("${aws.s3.sweeper.batch-size:500}") int batchSize,
+                         @Value("${aws.s3.sweeper.max-deletes-per-second:20}") double maxDeletesPerSecond,
+                         @Value("${aws.s3.sweeper.max-reads-per-second:2000}") double maxReadsPerSecond,
+                         @Value("${aws.s3.sweeper.delete-after:1d}") Duration deleteAfter,
+                         @Value("${aws.s3.sweeper.dry-run:true}") boolean scheduledDryRun) {
+        this.s3Client = s3Client;
+        this.mongoTemplate = mongoTemplate;
+        this.bucketName = bucketName;
+        this.gracePeriod = gracePeriod;
+        this.batchSize = Math.min(batchSize, 1000);
+        this.maxDeletesPerSecond = maxDeletesPerSecond;
+        this.maxReadsPerSecond = maxReadsPerSecond;
+        this.deleteAfter = deleteAfter;
+        this.scheduledDryRun = scheduledDryRun;
+    }
+
+    // Scheduled sweep (disabled unless aws.s3.sweeper.cron is set)
+    @Scheduled(cron = "${aws.s3.sweeper.cron:-}")
+    public void scheduledSweep() {
+        sweep(scheduledDryRun).ifPresent(report -> log.info(
+                "S3 sweep (dry run: {}): {} objects scanned, {} orphans ({} bytes), {} deleted",
+                report.dryRun(), report.scanned(), report.orphans(), report.orphanBytes(), report.deleted()));
+    }
+
+    // Run a sweep, empty when one is already running
+    public Optional<SweepReport> sweep(boolean dryRun) {
+        if (!running.compareAndSet(false, true)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(run(dryRun));
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private SweepReport run(boolean dryRun) {
+        Instant startedAt = Instant.now();
+        Instant cutoff = startedAt.minus(gracePeriod);
+        long scanned = 0;
+        long orphans = 0;
+        long orphanBytes = 0;
+        long deleted = 0;
+        List<String> orphanKeys = new ArrayList<>();
+        Pacer reads = new Pacer(maxReadsPerSecond);
+        Pacer deletes = new Pacer(maxDeletesPerSecond);
+
+        Set<String> referenced = referencedKeys(reads);
+
+        String continuationToken = null;
+        do {
+            reads.acquire(batchSize);
+            ListObjectsV2Response page = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                    .bucket(bucketName)
+                    .maxKeys(batchSize)
+                    .continuationToken(continuationToken)
+                    .build());
+            continuationToken = page.nextContinuationToken();
+            scanned += page.contents().size();
+
+            // Objects past the grace period
+            Map<String, S3Object> candidates = new LinkedHashMap<>();
+            for (S3Object object : page.contents()) {
+                if (object.lastModified().isBefore(cutoff)) {
+                    candidates.put(object.key(), object);
+                }
+            }
+            if (candidates.isEmpty()) {
+                continue;
+            }
+
+            List<S3Object> batch = orphans(candidates, referenced, cutoff);
+            for (S3Object object : batch) {
+                orphans++;
+                orphanBytes += object.size();
+                if (orphanKeys.size() < MAX_REPORTED_KEYS) {
+                    orphanKeys.add(object.key());
+                }
+            }
+            if (!dryRun && !batch.isEmpty()) {
+                List<S3Object> due = due(batch, startedAt);
+                if (!due.isEmpty()) {
+                    deleted += delete(due, cutoff, deletes);
+                }
+            }
+        } while (continuationToken != null);
+
+        if (!dryRun) {
+            // Marked keys not found this run are referenced again (or gone)
+            mongoTemplate.remove(Query.query(Criteria.where("lastFoundAt").lt(Date.from(startedAt))), MARKS);
+        }
+        return new SweepReport(dryRun, scanned, orphans, orphanBytes, deleted, orphanKeys, startedAt, Instant.now());
+    }
+
+    // Original keys referenced by documents and uploads in progress (one paced scan of each collection)
+    private Set<String> referencedKeys(Pacer reads) {
+        Set<String> referenced = new HashSet<>();
+        REFERENCES.forEach((collection, field) -> {
+            Query query = Query.query(Criteria.where(field).type(JsonSchemaObject.Type.STRING));
+            query.fields().include(field).exclude("_id");
+            scan(query, collection, reads, document -> referenced.add(
+                    Thumbnails.originalKey(Thumbnails.objectKey(document.getString(field), bucketName))));
+        });
+        Query uploading = new Query();
+        uploading.fields().include("key").exclude("_id");
+        scan(uploading, "upload_sessions", reads, document -> referenced.add(document.getString("key")));
+        return referenced;
+    }
+
+    private void scan(Query query, String collection, Pacer reads, Consumer<Document> consumer) {
+        query.cursorBatchSize(batchSize);
+        try (Stream<Document> documents = mongoTemplate.stream(query, Document.class, collection)) {
+            Iterator<Document> iterator = documents.iterator();
+            for (long read = 1; iterator.hasNext(); read++) {
+                if (read % batchSize == 0) {
+                    reads.acquire(batchSize);
+                }
+                consumer.accept(iterator.next());
+            }
+        }
+    }
+
+    // Candidates whose original is not referenced
+    private List<S3Object> orphans(Map<String, S3Object> candidates, Set<String> referenced, Instant cutoff) {
+        // Thumbnails live as long as their original
+        Map<String, String> originals = new HashMap<>();
+        for (String key : candidates.keySet()) {
+            originals.put(key, Thumbnails.originalKey(key));
+        }
+        Set<String> unreferenced = new HashSet<>(originals.values());
+        unreferenced.removeAll(referenced);
+        if (unreferenced.isEmpty()) {
+            return List.of();
+        }
+
+        // Files referenced again by a recent upload (deduplicated content keeps its old S3 date)
+        Query recent = Query.query(Criteria.where("_id").in(unreferenced)
+                .and("lastReferencedDate").gte(cutoff.atZone(ZoneId.systemDefault()).toLocalDateTime()));
+        recent.fields().include("_id");
+        mongoTemplate.find(recent, StoredFile.class).forEach(file -> unreferenced.remove(file.getKey()));
+
+        List<S3Object> orphans = new ArrayList<>();
+        candidates.forEach((key, object) -> {
+            if (unreferenced.contains(originals.get(key))) {
+                orphans.add(object);
+            }
+        });
+        return orphans;
+    }
+
+    // Orphans first found at least delete-after ago, the others are marked and kept until a later run
+    private List<S3Object> due(List<S3Object> batch, Instant now) {
+        List<String> keys = batch.stream().map(S3Object::key).toList();
+        BulkOperations marks = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MARKS);
+        keys.forEach(key -> marks.upsert(Query.query(Criteria.where("_id").is(key)), new Update()
+                .setOnInsert("foundAt", Date.from(now))
+                .set("lastFoundAt", Date.from(now))));
+        marks.execute();
+
+        Query dueQuery = Query.query(Criteria.where("_id").in(keys).and("foundAt").lte(Date.from(now.minus(deleteAfter))));
+        Set<String> dueKeys = new HashSet<>();
+        mongoTemplate.find(dueQuery, Document.class, MARKS).forEach(mark -> dueKeys.add(mark.getString("_id")));
+        return batch.stream().filter(object -> dueKeys.contains(object.key())).toList();
+    }
+
+    // Delete orphans in one request
+    // Files entries are claimed first (marked as deleting, see S3Service), so a concurrent upload of the same
+    // content waits and stores it again instead of reusing an object that is being deleted
+    private long delete(List<S3Object> batch, Instant cutoff, Pacer pacer) {
+        LocalDateTime referencedBefore = cutoff.atZone(ZoneId.systemDefault()).toLocalDateTime();
+        List<String> keys = new ArrayList<>();
+        List<String> claimed = new ArrayList<>();
+        for (S3Object object : batch) {
+            String key = object.key();
+            if (!key.equals(Thumbnails.originalKey(key))) {
+                // Thumbnails have no entry
+                keys.add(key);
+                continue;
+            }
+            try {
+                // Objects without entry get one, so uploads of the same content wait as well
+                mongoTemplate.upsert(Query.query(Criteria.where("_id").is(key).and("deleting").ne(true).orOperator(
+                                Criteria.where("lastReferencedDate").lt(referencedBefore),
+                                Criteria.where("lastReferencedDate").exists(false))),
+                        Update.update("deleting", true), StoredFile.class);
+                keys.add(key);
+                claimed.add(key);
+            } catch (DuplicateKeyException e) {
+                // Referenced by an upload since the check, or already being deleted
+            }
+        }
+        if (keys.isEmpty()) {
+            return 0;
+        }
+
+        pacer.acquire(keys.size());
+        DeleteObjectsResponse response;
+        try {
+            response = s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(bucketName)
+                    .delete(Delete.builder()
+                            .objects(keys.stream().map(key -> ObjectIdentifier.builder().key(key).build()).toList())
+                            .quiet(true)
+                            .build())
+                    .build());
+        } finally {
+            // Objects that failed to delete are found again by the next run
+            mongoTemplate.remove(Query.query(Criteria.where("_id").in(claimed).and("deleting").is(true)),
+                    StoredFile.class);
+        }
+        mongoTemplate.remove(Query.query(Criteria.where("_id").in(keys)), MARKS);
+        response.errors().forEach(error -> log.warn("Failed to delete orphan {}: {}", error.key(), error.message()));
+        return keys.size() - response.errors().size();
+    }
+
+    // Spaces out reads or deletes to at most permitsPerSecond
+    private static class Pacer {
+
+        private final long intervalNanos;
+
+        private long next = System.nanoTime();
+
+        Pacer(double permitsPerSecond) {
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        }
+
+        void acquire(int permits) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Sweep interrupted", e);
+                }
+            }
+            next = Math.max(next, System.nanoTime()) + intervalNanos * permits;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.klass.server.s3;
+
+import jakarta.validation.constraints.NotBlank;
+
+// Direct upload request (file is sent by the client straight to S3)
+public record PresignUploadRequest(
+        String keyPath,
+        @NotBlank(message = "File name cannot be blank or null")
+        String fileName,
+        @NotBlank(message = "Content type cannot be blank or null")
+        String contentType
+) {
+}
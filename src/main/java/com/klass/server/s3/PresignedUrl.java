@@ -0,0 +1,11 @@
+package com.klass.server.s3;
+
+import java.time.Instant;
+
+// Short-lived presigned S3 URL for an object key
+public record PresignedUrl(
+        String url,
+        String key,
+        Instant expiresAt
+) {
+}
@@ -1,10 +1,21 @@
 package com.klass.server.s3;
 
+import com.klass.server.common.security.UserPrincipal;
+import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/s3")
@@ -17,25 +28,84 @@ public class S3Controller {
         this.s3Service = s3Service;
     }
 
-    @GetMapping("/{fileName}")
-    public S3Projection getFileUrl(@PathVariable String fileName) {
-        return new S3Projection(s3Service.getFileUrl(fileName));
+    @Autowired
+    OrphanSweeper orphanSweeper;
+
+    // Keys may contain slashes (key paths)
+    @GetMapping("/{*key}")
+    public S3Projection getFileUrl(@PathVariable String key) {
+        String fileName = objectKey(key);
+        return new S3Projection(s3Service.getFileUrl(fileName), fileName);
     }
 
     @PostMapping(path="/upload", consumes = {MediaType.MULTIPART_FORM_DATA_VALUE})
-    public S3Projection uploadFile(@ModelAttribute S3File file) throws IOException {
+    public CompletableFuture<S3Projection> uploadFile(@ModelAttribute S3File file) {
+        // Request thread is released while the transfer runs
+        return s3Service.uploadFileAsync(file, UserPrincipal.current().objectId())
+                .thenApply(fileName -> new S3Projection(s3Service.getFileUrl(fileName), fileName));
+    }
+
+    // Direct uploads (file bytes go from the client to S3, not through this server)
+
+    // Get presigned PUT url
+    @PostMapping("/presign/upload")
+    public PresignedUrl presignUpload(@RequestBody @Valid PresignUploadRequest upload) {
+        return s3Service.presignUpload(upload, UserPrincipal.current().objectId());
+    }
+
+    // Get presigned GET url
+    @GetMapping("/presign/download/{*key}")
+    public PresignedUrl presignDownload(@PathVariable String key) {
+        return s3Service.presignDownload(objectKey(key));
+    }
+
+    // Record a finished direct upload
+    @PostMapping("/presign/complete")
+    public ResponseEntity<S3Projection> completeUpload(@RequestParam String key) throws IOException {
         try {
-            return new S3Projection(s3Service.uploadFile(file));
-        } catch (IOException e) {
-            throw new IOException("Failed to upload file to S3", e);
+            StoredFile file = s3Service.completeUpload(key, UserPrincipal.current().objectId());
+            return ResponseEntity.ok(new S3Projection(s3Service.getFileUrl(file.getKey()), file.getKey()));
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (FileAlreadyExistsException e) {
+            // Key not issued by presign (or already recorded)
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
         }
     }
 
-    @DeleteMapping("/delete/{fileName}")
-    public void deleteFile(@PathVariable String fileName) {
-        s3Service.deleteFile(fileName);
+    // Thumbnail of an uploaded image (redirect to S3), 404 until thumbnails are ready
+    // Served without authentication, so it only ever redirects to generated thumbnails, never to other objects
+    @GetMapping("/thumbnails/{size}/{*key}")
+    public ResponseEntity<Void> getThumbnail(@PathVariable int size, @PathVariable String key) {
+        String objectKey = objectKey(key);
+        if (!Thumbnails.SIZES.contains(size) || !s3Service.hasThumbnails(objectKey)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.status(HttpStatus.FOUND)
+                .location(URI.create(s3Service.getFileUrl(Thumbnails.key(objectKey, size))))
+                // Shorter than the presigned url lifetime
+                .cacheControl(CacheControl.maxAge(Duration.ofMinutes(5)).cachePrivate())
+                .build();
     }
 
+    // Find (and unless dry run, delete) S3 objects no document references
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/sweep")
+    public ResponseEntity<SweepReport> sweep(@RequestParam(defaultValue = "true") boolean dryRun) {
+        return orphanSweeper.sweep(dryRun)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.CONFLICT).build());
+    }
 
+    // Releases the caller's reference to the file (403 if the caller holds none)
+    @DeleteMapping("/delete/{*key}")
+    public CompletableFuture<Void> deleteFile(@PathVariable String key) {
+        return s3Service.deleteFileAsync(objectKey(key), UserPrincipal.current().objectId());
+    }
+
+    // Key captured by {*key} (starts with a slash)
+    private static String objectKey(String path) {
+        return path.substring(1);
+    }
 
 }
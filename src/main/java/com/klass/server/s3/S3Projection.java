@@ -1,6 +1,8 @@
 package com.klass.server.s3;
 
+// Download url (presigned, short-lived) and object key (the value to store in documents)
 public record S3Projection(
-        String url
+        String url,
+        String key
 ) {
 }
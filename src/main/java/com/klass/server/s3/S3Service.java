@@ -1,24 +1,43 @@
 package com.klass.server.s3;
 
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
-import software.amazon.awssdk.services.s3.model.GetUrlRequest;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.s3.model.S3Exception;
-
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+
+import java.io.*;
+import java.nio.file.FileAlreadyExistsException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 @Service
 @RequiredArgsConstructor
@@ -28,66 +47,466 @@ public class S3Service {
 
     private final S3Client s3Client;
 
+    private final S3Presigner s3Presigner;
+
+    private final StoredFileRepository storedFileRepository;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final S3AsyncClient s3AsyncClient;
+
+    private final S3TransferQueue transferQueue;
+
+    private final ImageDerivatives imageDerivatives;
+
+    // Tries to reference content that is being deleted
+    private static final int REFERENCE_ATTEMPTS = 5;
+
+    @Value("${aws.s3.presign.upload-ttl:15m}")
+    private Duration uploadUrlTtl;
+
+    @Value("${aws.s3.presign.download-ttl:1h}")
+    private Duration downloadUrlTtl;
+
+    // Files of this size or larger are sent as multipart uploads
+    @Value("${aws.s3.multipart.threshold:16MB}")
+    private DataSize multipartThreshold;
+
+    @Value("${aws.s3.multipart.part-size:8MB}")
+    private DataSize partSize;
+
+    // Parts of a single upload sent at the same time
+    @Value("${aws.s3.multipart.part-parallelism:4}")
+    private int partParallelism;
+
+    // Threads sending parts (shared by all uploads)
+    @Value("${aws.s3.multipart.threads:16}")
+    private int partThreads;
+
+    private ExecutorService partExecutor;
+
+    // Hashes and reads upload streams for async transfers, one thread per transfer slot of the queue
+    // (a transfer runs on at most one of them at a time, so queued transfers never add threads)
+    private ExecutorService transferExecutor;
+
+    @PostConstruct
+    void init() {
+        partExecutor = Executors.newFixedThreadPool(partThreads);
+        transferExecutor = Executors.newFixedThreadPool(transferQueue.maxConcurrent());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        partExecutor.shutdown();
+        transferExecutor.shutdown();
+    }
+
     // Generate file name
-    private String generateFileName(MultipartFile file) {
+    static String generateFileName(String originalFilename) {
         return new Date().getTime() + "-"
-                + Objects.requireNonNull(file.getOriginalFilename())
+                + Objects.requireNonNull(originalFilename)
                 .replace(" ", "_");
     }
 
-    // Ger download url for file
+    // Get download url for file (presigned, objects are private)
     public String getFileUrl(String fileName) {
+        return presignDownload(fileName).url();
+    }
+
+    // Thumbnails of the file have been generated
+    public boolean hasThumbnails(String fileName) {
+        return mongoTemplate.exists(Query.query(Criteria.where("_id").is(fileName).and("thumbnails").is(true)),
+                StoredFile.class);
+    }
+
+    // Short-lived GET url
+    public PresignedUrl presignDownload(String fileName) {
         try {
-            GetUrlRequest request = GetUrlRequest.builder()
-                    .bucket(bucketName)
-                    .key(fileName)
+            GetObjectPresignRequest request = GetObjectPresignRequest.builder()
+                    .signatureDuration(downloadUrlTtl)
+                    .getObjectRequest(GetObjectRequest.builder()
+                            .bucket(bucketName)
+                            .key(fileName)
+                            .build())
                     .build();
-
-            return s3Client.utilities().getUrl(request).toString();
+            PresignedGetObjectRequest presigned = s3Presigner.presignGetObject(request);
+            return new PresignedUrl(presigned.url().toString(), fileName, presigned.expiration());
         } catch (S3Exception e) {
             throw new IllegalStateException("Failed to get file from S3", e);
         }
     }
 
-    // Upload file to S3
-    public String uploadFile(S3File file) throws IOException {
-        // Multipart to File
-        File convertedFile = new File(Objects.requireNonNull(file.getFile().getOriginalFilename()));
-        try (FileOutputStream fileOutputStream = new FileOutputStream(convertedFile)){
-            fileOutputStream.write(file.getFile().getBytes());
+    // Short-lived PUT url, the client uploads the file straight to S3 (same content type must be sent)
+    // The key is recorded as pending for the owner, only pending keys can be completed
+    public PresignedUrl presignUpload(PresignUploadRequest upload, ObjectId owner) {
+        String fileName = Objects.requireNonNullElse(upload.keyPath(), "") + generateFileName(upload.fileName());
+        mongoTemplate.insert(new StoredFile(
+                fileName, upload.contentType(), 0, owner, null, null, 0, null, false, false, false, LocalDateTime.now(), null));
+        PutObjectPresignRequest request = PutObjectPresignRequest.builder()
+                .signatureDuration(uploadUrlTtl)
+                .putObjectRequest(PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(fileName)
+                        .contentType(upload.contentType())
+                        .build())
+                .build();
+        PresignedPutObjectRequest presigned = s3Presigner.presignPutObject(request);
+        return new PresignedUrl(presigned.url().toString(), fileName, presigned.expiration());
+    }
+
+    // Record a direct upload once the client finished it (object must exist)
+    // Only keys presigned for the same owner and not completed yet are accepted, existing files are never replaced
+    public StoredFile completeUpload(String fileName, ObjectId owner) throws IOException {
+        try {
+            HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(fileName)
+                    .build());
+            StoredFile file = mongoTemplate.findAndModify(
+                    Query.query(Criteria.where("_id").is(fileName)
+                            .and("owner").is(owner)
+                            .and("stored").is(false)
+                            .and("refCount").is(0)),
+                    new Update()
+                            .set("contentType", head.contentType())
+                            .set("size", head.contentLength())
+                            .set("refCount", 1)
+                            .set(holder(owner), 1L)
+                            .set("stored", true)
+                            .currentDate("lastReferencedDate"),
+                    FindAndModifyOptions.options().returnNew(true),
+                    StoredFile.class
+            );
+            if (file == null) {
+                throw new FileAlreadyExistsException(fileName, null, "Upload was not presigned or is already completed");
+            }
+            imageDerivatives.generate(fileName, head.contentType());
+            return file;
+        } catch (NoSuchKeyException e) {
+            throw new FileNotFoundException("File not uploaded: " + fileName);
+        } catch (S3Exception e) {
+            throw new IOException("Failed to read file from S3", e);
+        }
+    }
+
+    // Upload file to S3 (streamed from the multipart request, no temp file or in-memory copy), returns key
+    // The content is hashed while it is sent: an identical file already stored under the same key path is
+    // referenced instead, and the object just sent is deleted
+    public String uploadFile(S3File file, ObjectId owner) throws IOException {
+        MultipartFile multipartFile = file.getFile();
+        String fileName = keyPath(file) + generateFileName(multipartFile.getOriginalFilename());
+        MessageDigest digest = sha256();
+
+        long size = multipartFile.getSize();
+        // A retried put re-reads part of the stream, the hash then only misses deduplication of this upload
+        try (InputStream inputStream = new DigestInputStream(multipartFile.getInputStream(), digest)) {
+            if (size < multipartThreshold.toBytes()) {
+                // Send to S3 client
+                s3Client.putObject(putRequest(fileName, multipartFile), RequestBody.fromInputStream(inputStream, size));
+            } else {
+                uploadMultipart(fileName, multipartFile.getContentType(), metadata(multipartFile), inputStream, size);
+            }
+        } catch (IOException | S3Exception e) {
+            throw new IOException("Failed to upload file to S3", e);
+        }
+        return stored(fileName, file, HexFormat.of().formatHex(digest.digest()), owner);
+    }
+
+    // Upload file without holding the request thread, returns key
+    // Transfers go through the transfer queue (limited concurrency, rejected when the queue is full)
+    public CompletableFuture<String> uploadFileAsync(S3File file, ObjectId owner) {
+        MultipartFile multipartFile = file.getFile();
+        long size = multipartFile.getSize();
+
+        // Large files: parallel multipart upload on a transfer thread
+        if (size >= multipartThreshold.toBytes()) {
+            return transferQueue.submit(size, () -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return uploadFile(file, owner);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, transferExecutor));
+        }
+
+        String fileName = keyPath(file) + generateFileName(multipartFile.getOriginalFilename());
+        return transferQueue.submit(size, () -> {
+            MessageDigest digest = sha256();
+            InputStream inputStream;
+            try {
+                inputStream = new DigestInputStream(multipartFile.getInputStream(), digest);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            // Stream is read (and hashed) in chunks as the async client sends them, only once
+            return s3AsyncClient.putObject(putRequest(fileName, multipartFile),
+                            new InputStreamAsyncRequestBody(inputStream, size, transferExecutor))
+                    .whenComplete((response, error) -> closeQuietly(inputStream))
+                    .thenApplyAsync(response -> {
+                        try {
+                            return stored(fileName, file, HexFormat.of().formatHex(digest.digest()), owner);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, transferExecutor);
+        });
+    }
+
+    private static String keyPath(S3File file) {
+        return Objects.requireNonNullElse(file.getKeyPath(), "");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Record an uploaded object, returns the key of the object holding its content
+    // (the uploaded one, or the one already stored with the same content, then the uploaded one is deleted)
+    private String stored(String fileName, S3File file, String sha256, ObjectId owner) throws IOException {
+        String key;
+        try {
+            key = reference(fileName, file, sha256, owner);
+        } catch (IOException | RuntimeException e) {
+            deleteObjectQuietly(fileName);
+            throw e;
+        }
+        if (key.equals(fileName)) {
+            imageDerivatives.generate(fileName, file.getFile().getContentType());
+        } else {
+            deleteObjectQuietly(fileName);
         }
+        return key;
+    }
 
-        // generate convertedFile name
-        String fileName = file.getKeyPath() + generateFileName(file.getFile());
+    // Add a reference of the owner to the content (reference count and holders in the files collection)
+    // Content being deleted is referenced again once its entry is gone (then the uploaded object is kept)
+    private String reference(String fileName, S3File file, String sha256, ObjectId owner) throws IOException {
+        MultipartFile multipartFile = file.getFile();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                StoredFile referenced = mongoTemplate.findAndModify(
+                        Query.query(Criteria.where("keyPath").is(keyPath(file))
+                                .and("sha256").is(sha256)
+                                .and("deleting").ne(true)),
+                        new Update()
+                                .inc("refCount", 1)
+                                .inc(holder(owner), 1L)
+                                .currentDate("lastReferencedDate")
+                                .setOnInsert("_id", fileName)
+                                .setOnInsert("contentType", multipartFile.getContentType())
+                                .setOnInsert("size", multipartFile.getSize())
+                                .setOnInsert("owner", owner)
+                                .setOnInsert("stored", true)
+                                .setOnInsert("createdDate", LocalDateTime.now()),
+                        FindAndModifyOptions.options().upsert(true).returnNew(true),
+                        StoredFile.class
+                );
+                return Objects.requireNonNull(referenced).getKey();
+            } catch (DuplicateKeyException e) {
+                // Entry being deleted (the upsert could not match it)
+                if (attempt == REFERENCE_ATTEMPTS) {
+                    throw new IOException("File is being deleted, retry later", e);
+                }
+                try {
+                    Thread.sleep(50L * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Upload interrupted");
+                }
+            }
+        }
+    }
 
+    // References of a holder
+    private static String holder(ObjectId owner) {
+        return "holders." + owner.toHexString();
+    }
+
+    // Remove a reference of the holder, returns true when it was the last one (object can be deleted)
+    // The entry is then claimed for deletion, only while nobody added a reference, and must be
+    // removed with deleted() once the object is gone
+    // Files with an entry can only be released by a holder (entries without holders: by their owner)
+    private boolean release(String key, ObjectId holder) {
+        StoredFile released = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(key).and("refCount").gt(0).and(holder(holder)).gt(0)),
+                new Update().inc("refCount", -1).inc(holder(holder), -1L),
+                FindAndModifyOptions.options().returnNew(true),
+                StoredFile.class
+        );
+        if (released != null && released.getRefCount() > 0) {
+            return false;
+        }
+        if (released == null) {
+            // Objects without entry (uploaded before the files collection) are deleted directly
+            if (!mongoTemplate.exists(Query.query(Criteria.where("_id").is(key)), StoredFile.class)) {
+                return true;
+            }
+            // Entries written before holders were tracked have a single reference, made by the owner
+            if (!mongoTemplate.exists(Query.query(Criteria.where("_id").is(key)
+                    .and("holders").exists(false)
+                    .and("owner").is(holder)), StoredFile.class)) {
+                throw new AccessDeniedException("No reference to release for " + key);
+            }
+        }
+        // No reference left (entries without holders: the owner's single reference)
+        StoredFile claimed = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(key)
+                        .and("refCount").not().gt(1)
+                        .and("deleting").ne(true)
+                        .orOperator(Criteria.where("refCount").not().gt(0), Criteria.where("holders").exists(false))),
+                Update.update("deleting", true).set("refCount", 0),
+                StoredFile.class
+        );
+        return claimed != null;
+    }
+
+    // Object deleted, uploads of the same content can store it again
+    private void deleted(String key) {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(key).and("deleting").is(true)), StoredFile.class);
+    }
+
+    // Object sent for nothing (content already stored, or not recorded)
+    private void deleteObjectQuietly(String key) {
         try {
-            Map<String, String> metadata = new HashMap<>();
-            metadata.put("x-amz-meta-title", file.getFile().getOriginalFilename());
-            // upload convertedFile
-            PutObjectRequest request = PutObjectRequest.builder()
+            s3Client.deleteObject(DeleteObjectRequest.builder()
                     .bucket(bucketName)
-                    .key(fileName)
-                    .contentType(file.getFile().getContentType())
-                    .metadata(metadata)
-                    .acl("public-read")
-                    .build();
-            // Send to S3 client
-            s3Client.putObject(request, RequestBody.fromFile(convertedFile));
+                    .key(key)
+                    .build());
         } catch (S3Exception e) {
-            throw new IOException("Failed to upload convertedFile to S3", e);
+            // Left for the orphan sweeper
         }
+    }
 
-        // delete convertedFile
-        boolean delete = convertedFile.delete();
-        if (!delete) {
-            throw new IOException("Failed to delete temp convertedFile");
+    private PutObjectRequest putRequest(String fileName, MultipartFile multipartFile) {
+        return PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(fileName)
+                .contentType(multipartFile.getContentType())
+                .contentLength(multipartFile.getSize())
+                .metadata(metadata(multipartFile))
+                .build();
+    }
+
+    private static Map<String, String> metadata(MultipartFile multipartFile) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("x-amz-meta-title", multipartFile.getOriginalFilename());
+        return metadata;
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException ignored) {
+            // Nothing left to read
+        }
+    }
+
+    // Upload large file as S3 multipart upload, sending parts in parallel
+    // Memory is bounded to partParallelism buffers of partSize, whatever the file size
+    private void uploadMultipart(String fileName, String contentType, Map<String, String> metadata,
+                                 InputStream inputStream, long size) throws IOException {
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(fileName)
+                .contentType(contentType)
+                .metadata(metadata)
+                .build()).uploadId();
+
+        Semaphore buffers = new Semaphore(partParallelism);
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        try {
+            long remaining = size;
+            int partNumber = 1;
+            while (remaining > 0 && parts.stream().noneMatch(CompletableFuture::isCompletedExceptionally)) {
+                int length = (int) Math.min(partSize.toBytes(), remaining);
+                // Wait for a free buffer before reading next part
+                buffers.acquire();
+                byte[] buffer = inputStream.readNBytes(length);
+                if (buffer.length != length) {
+                    buffers.release();
+                    throw new IOException("Unexpected end of file at part " + partNumber);
+                }
+                parts.add(uploadPart(fileName, uploadId, partNumber++, buffer, buffers));
+                remaining -= length;
+            }
+
+            List<CompletedPart> completedParts = parts.stream()
+                    .map(CompletableFuture::join)
+                    .toList();
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(fileName)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortMultipart(fileName, uploadId, parts);
+            throw new IOException("Upload interrupted", e);
+        } catch (IOException | RuntimeException e) {
+            abortMultipart(fileName, uploadId, parts);
+            throw new IOException("Failed to upload file to S3", e);
         }
+    }
+
+    private CompletableFuture<CompletedPart> uploadPart(String fileName, String uploadId, int partNumber,
+                                                        byte[] buffer, Semaphore buffers) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                UploadPartRequest request = UploadPartRequest.builder()
+                        .bucket(bucketName)
+                        .key(fileName)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength((long) buffer.length)
+                        .build();
+                // Content provider reads the buffer in place (no copy)
+                String eTag = s3Client.uploadPart(request, RequestBody.fromContentProvider(
+                        () -> new ByteArrayInputStream(buffer), buffer.length, "application/octet-stream")).eTag();
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } finally {
+                buffers.release();
+            }
+        }, partExecutor);
+    }
 
-        return getFileUrl(fileName);
+    private void abortMultipart(String fileName, String uploadId, List<CompletableFuture<CompletedPart>> parts) {
+        // Let running parts finish before aborting, so no part is stored after the abort
+        parts.forEach(part -> part.handle((result, error) -> null).join());
+        s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(fileName)
+                .uploadId(uploadId)
+                .build());
     }
 
-    // Delete file from S3
-    public void deleteFile(String fileName) {
+    // Delete file from S3 without holding the request thread
+    // Object is kept while other uploads reference the same content, only a holder can release a reference
+    public CompletableFuture<Void> deleteFileAsync(String fileName, ObjectId holder) {
+        if (!release(fileName, holder)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        imageDerivatives.delete(fileName);
+        // Entry is removed even if the delete fails (the object left is removed by the sweeper)
+        return transferQueue.submit(0, () -> s3AsyncClient.deleteObject(DeleteObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(fileName)
+                        .build())
+                .whenComplete((response, error) -> deleted(fileName))
+                .thenAccept(response -> {
+                }));
+    }
+
+    // Delete file from S3 (object is kept while other uploads reference the same content)
+    public void deleteFile(String fileName, ObjectId holder) {
+        if (!release(fileName, holder)) {
+            return;
+        }
+        imageDerivatives.delete(fileName);
         try {
             DeleteObjectRequest request = DeleteObjectRequest.builder()
                     .bucket(bucketName)
@@ -97,9 +516,8 @@ public class S3Service {
             s3Client.deleteObject(request);
         } catch (S3Exception e) {
             throw new IllegalStateException("Failed to delete file from S3", e);
+        } finally {
+            deleted(fileName);
         }
     }
-
-
-
 }
@@ -0,0 +1,115 @@
+package com.klass.server.s3;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+// Media download through the server's disk cache (Range and If-None-Match supported, e.g. video seeking)
+@RestController
+@RequestMapping("/s3/stream")
+@ConditionalOnProperty(name = "aws.s3.stream.enabled", havingValue = "true")
+public class S3StreamController {
+
+    private final MediaCache mediaCache;
+
+    @Autowired
+    public S3StreamController(MediaCache mediaCache) {
+        this.mediaCache = mediaCache;
+    }
+
+    @Autowired
+    S3Service s3Service;
+
+    @GetMapping("/{*key}")
+    public void stream(@PathVariable String key, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        // Captured path starts with a slash
+        String objectKey = key.substring(1);
+
+        Optional<CachedMedia> found;
+        try {
+            found = mediaCache.get(objectKey);
+        } catch (FileNotFoundException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (found.isEmpty()) {
+            // Too large to cache, download straight from S3
+            response.sendRedirect(s3Service.getFileUrl(objectKey));
+            return;
+        }
+        CachedMedia media = found.get();
+
+        response.setHeader(HttpHeaders.ETAG, media.eTag());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), media.eTag())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(media.contentType());
+
+        long start = 0;
+        long length = media.size();
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        // Range of a different version (If-Range) gets the whole file
+        if (range != null && (ifRange == null || ifRange.equals(media.eTag()))) {
+            try {
+                List<HttpRange> ranges = HttpRange.parseRanges(range);
+                // Multiple ranges are answered with the whole file
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(media.size());
+                    long end = ranges.get(0).getRangeEnd(media.size());
+                    length = end - start + 1;
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + media.size());
+                }
+            } catch (IllegalArgumentException e) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + media.size());
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+        }
+        response.setContentLengthLong(length);
+
+        // File is sent with transferTo, no buffer in the handler
+        try (FileChannel file = FileChannel.open(media.path(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long sent = file.transferTo(position, remaining, out);
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .anyMatch(tag -> tag.equals("*") || tag.equals(eTag));
+    }
+}
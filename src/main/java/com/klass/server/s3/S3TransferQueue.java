@@ -0,0 +1,114 @@
+package com.klass.server.s3;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+// Limits concurrent S3 transfers, extra transfers wait in a bounded queue
+// When the queue is full transfers are rejected, so a burst of uploads cannot starve other endpoints
+@Component
+public class S3TransferQueue {
+
+    private final int maxConcurrent;
+
+    private final int maxQueued;
+
+    private final Queue<Transfer<?>> queued = new ArrayDeque<>();
+
+    private int inFlight = 0;
+
+    private long queuedBytes = 0;
+
+    private long inFlightBytes = 0;
+
+    public S3TransferQueue(MeterRegistry meterRegistry,
+                           @Value("${aws.s3.async.max-concurrent:32}") int maxConcurrent,
+                           @Value("${aws.s3.async.max-queued:256}") int maxQueued) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+
+        Gauge.builder("s3.transfers.queued", this, queue -> queue.read(() -> queue.queued.size()))
+                .register(meterRegistry);
+        Gauge.builder("s3.transfers.in-flight", this, queue -> queue.read(() -> queue.inFlight))
+                .register(meterRegistry);
+        Gauge.builder("s3.transfers.queued.bytes", this, queue -> queue.read(() -> queue.queuedBytes))
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("s3.transfers.in-flight.bytes", this, queue -> queue.read(() -> queue.inFlightBytes))
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    // Transfers running at the same time
+    public int maxConcurrent() {
+        return maxConcurrent;
+    }
+
+    // Start transfer now or when a slot frees up
+    public <T> CompletableFuture<T> submit(long bytes, Supplier<CompletableFuture<T>> start) {
+        Transfer<T> transfer = new Transfer<>(bytes, start, new CompletableFuture<>());
+        synchronized (this) {
+            if (inFlight < maxConcurrent) {
+                inFlight++;
+                inFlightBytes += bytes;
+            } else if (queued.size() < maxQueued) {
+                queued.add(transfer);
+                queuedBytes += bytes;
+                return transfer.result();
+            } else {
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Too many file transfers in progress"));
+            }
+        }
+        run(transfer);
+        return transfer.result();
+    }
+
+    private <T> void run(Transfer<T> transfer) {
+        CompletableFuture<T> running;
+        try {
+            running = transfer.start().get();
+        } catch (RuntimeException e) {
+            running = CompletableFuture.failedFuture(e);
+        }
+        running.whenComplete((value, error) -> {
+            finished(transfer);
+            if (error != null) {
+                transfer.result().completeExceptionally(error);
+            } else {
+                transfer.result().complete(value);
+            }
+        });
+    }
+
+    // Free slot and start next queued transfer
+    private void finished(Transfer<?> transfer) {
+        Transfer<?> next;
+        synchronized (this) {
+            inFlight--;
+            inFlightBytes -= transfer.bytes();
+            next = queued.poll();
+            if (next != null) {
+                queuedBytes -= next.bytes();
+                inFlight++;
+                inFlightBytes += next.bytes();
+            }
+        }
+        if (next != null) {
+            run(next);
+        }
+    }
+
+    private synchronized double read(Supplier<Number> value) {
+        return value.get().doubleValue();
+    }
+
+    private record Transfer<T>(long bytes, Supplier<CompletableFuture<T>> start, CompletableFuture<T> result) {
+    }
+}
@@ -0,0 +1,67 @@
+package com.klass.server.s3;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+// Object uploaded to S3
+// Uploads through the server are deduplicated by content within their key path (keyPath, sha256),
+// refCount counts the uploads sharing the object and holders who made them
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "files")
+// Only uploads through the server have a content hash (sparse: other entries have neither field)
+@CompoundIndex(name = "keyPath_sha256", def = "{'keyPath': 1, 'sha256': 1}", unique = true, sparse = true)
+public class StoredFile {
+
+    // S3 object key
+    @Id
+    private String key;
+
+    private String contentType;
+
+    private long size;
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    private ObjectId owner;
+
+    // Key path of the upload and SHA-256 of the content (uploads through the server)
+    private String keyPath;
+
+    private String sha256;
+
+    // Uploads referencing this object, deleted when it reaches 0
+    private long refCount;
+
+    // References per holder (user id -> uploads), a holder can only release references it made
+    private Map<String, Long> holders;
+
+    // Object is in S3 (false while the first upload of the content is being sent)
+    private boolean stored;
+
+    // Thumbnails generated (images only)
+    private boolean thumbnails;
+
+    // Last reference released, object is being deleted (removed with the object)
+    private boolean deleting;
+
+    @CreatedDate
+    private LocalDateTime createdDate;
+
+    // Last upload of this content (deduplicated uploads do not change the S3 object date)
+    private LocalDateTime lastReferencedDate;
+
+}
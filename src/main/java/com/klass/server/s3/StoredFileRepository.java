@@ -0,0 +1,8 @@
+package com.klass.server.s3;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface StoredFileRepository extends MongoRepository<StoredFile, String> {
+}
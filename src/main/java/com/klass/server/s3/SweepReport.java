@@ -0,0 +1,18 @@
+package com.klass.server.s3;
+
+import java.time.Instant;
+import java.util.List;
+
+// Result of an orphan sweep (in a dry run, orphans are reported but not deleted)
+public record SweepReport(
+        boolean dryRun,
+        long scanned,
+        long orphans,
+        long orphanBytes,
+        long deleted,
+        // First orphan keys found (report size is limited)
+        List<String> orphanKeys,
+        Instant startedAt,
+        Instant finishedAt
+) {
+}
@@ -0,0 +1,19 @@
+package com.klass.server.s3;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Thumbnail urls of an image in responses, written as size -> url by ThumbnailUrlsSerializer
+// (the serializer knows the base url, so projections only carry the object key)
+public record ThumbnailUrls(
+        String key
+) {
+    // Urls by size under the base url (context path or absolute server url, without trailing slash)
+    public Map<Integer, String> urls(String baseUrl) {
+        Map<Integer, String> urls = new LinkedHashMap<>();
+        for (int size : Thumbnails.SIZES) {
+            urls.put(size, baseUrl + "/" + Thumbnails.THUMBNAILS_PATH + size + "/" + key);
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,25 @@
+package com.klass.server.s3;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+
+// Thumbnail urls in responses point to this server (context path by default)
+@JsonComponent
+class ThumbnailUrlsSerializer extends JsonSerializer<ThumbnailUrls> {
+
+    private final String baseUrl;
+
+    ThumbnailUrlsSerializer(@Value("${aws.s3.thumbnails.base-url:${server.servlet.contextPath:}}") String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    @Override
+    public void serialize(ThumbnailUrls thumbnails, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeObject(thumbnails.urls(baseUrl));
+    }
+}
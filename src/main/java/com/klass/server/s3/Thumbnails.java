@@ -0,0 +1,78 @@
+package com.klass.server.s3;
+
+import java.net.URI;
+import java.util.List;
+
+// Fixed-size JPEG derivatives of uploaded images, stored next to the original (<key>@<size>.jpg)
+public final class Thumbnails {
+
+    // Longest side, in pixels
+    public static final List<Integer> SIZES = List.of(64, 256, 1024);
+
+    static final String THUMBNAILS_PATH = "s3/thumbnails/";
+
+    private Thumbnails() {
+    }
+
+    public static String key(String originalKey, int size) {
+        return originalKey + "@" + size + ".jpg";
+    }
+
+    // Thumbnail urls by size, for course cards and avatars (served by GET /s3/thumbnails without
+    // authentication, so they can be used in <img> tags; 404 until thumbnails are ready)
+    // Image may be a key or a (legacy) S3 object url, null when there is no image
+    public static ThumbnailUrls urls(String image) {
+        if (image == null || image.isBlank()) {
+            return null;
+        }
+        return new ThumbnailUrls(objectKey(image, null));
+    }
+
+    // Original key of a thumbnail key (other keys are returned as is)
+    static String originalKey(String key) {
+        int at = key.lastIndexOf('@');
+        if (at > 0 && key.endsWith(".jpg")) {
+            try {
+                int size = Integer.parseInt(key.substring(at + 1, key.length() - ".jpg".length()));
+                if (SIZES.contains(size)) {
+                    return key.substring(0, at);
+                }
+            } catch (NumberFormatException e) {
+                // Not a thumbnail
+            }
+        }
+        return key;
+    }
+
+    // Object key of a reference held by a document: a key, an S3 object url (virtual-hosted or path-style,
+    // presigned or not), a CDN url, or a thumbnail url of this server (absolute or relative)
+    // The bucket is stripped from path-style urls when given
+    static String objectKey(String reference, String bucketName) {
+        if (!reference.startsWith("http://") && !reference.startsWith("https://") && !reference.startsWith("/")) {
+            return reference;
+        }
+        URI uri;
+        try {
+            uri = URI.create(reference);
+        } catch (IllegalArgumentException e) {
+            // Not a url, kept as is
+            return reference;
+        }
+        // Query (presigned url signature) and host are not part of the key
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        String key = path.startsWith("/") ? path.substring(1) : path;
+
+        int thumbnails = key.indexOf(THUMBNAILS_PATH);
+        if (thumbnails == 0 || (thumbnails > 0 && key.charAt(thumbnails - 1) == '/')) {
+            // <context path>/s3/thumbnails/<size>/<key>
+            String sized = key.substring(thumbnails + THUMBNAILS_PATH.length());
+            int slash = sized.indexOf('/');
+            return slash < 0 ? sized : sized.substring(slash + 1);
+        }
+        if (bucketName != null && key.startsWith(bucketName + "/")
+                && (uri.getHost() == null || !uri.getHost().startsWith(bucketName + "."))) {
+            return key.substring(bucketName.length() + 1);
+        }
+        return key;
+    }
+}
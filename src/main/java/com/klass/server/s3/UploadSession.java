@@ -0,0 +1,68 @@
+package com.klass.server.s3;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Resumable upload in progress, backed by an S3 multipart upload
+// Each chunk is one part, so only the chunk being received is in flight (nothing is kept on the server)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "upload_sessions")
+public class UploadSession {
+
+    @Id
+    private String id;
+
+    // S3 object key
+    private String key;
+
+    // S3 multipart upload id
+    private String uploadId;
+
+    private String contentType;
+
+    // Total file size
+    private long size;
+
+    // Size of every chunk but the last one
+    private long chunkSize;
+
+    // Bytes received so far (next chunk starts here)
+    private long offset;
+
+    private List<Part> parts = new ArrayList<>();
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    private ObjectId owner;
+
+    // Extended on every chunk, expired sessions are aborted in the background
+    @Indexed
+    private Instant expiresAt;
+
+    @CreatedDate
+    private LocalDateTime createdDate;
+
+    public boolean isComplete() {
+        return offset == size;
+    }
+
+    // Uploaded S3 part
+    public record Part(int number, String eTag) {
+    }
+}
@@ -0,0 +1,109 @@
+package com.klass.server.s3;
+
+import com.klass.server.common.exceptions.ErrorResponse;
+import com.klass.server.common.security.UserPrincipal;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Optional;
+
+// Resumable uploads (large files, e.g. videos)
+//  1. POST /s3/uploads             -> session with chunk size
+//  2. PUT /s3/uploads/{id}?offset= -> raw chunk bytes, chunkSize long (except the last one)
+//  3. GET /s3/uploads/{id}         -> received offset, to resume after a dropped connection
+//  4. POST /s3/uploads/{id}/complete
+@RestController
+@RequestMapping("/s3/uploads")
+public class UploadSessionController {
+
+    private final UploadSessionService uploadSessionService;
+
+    @Autowired
+    public UploadSessionController(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    @Autowired
+    S3Service s3Service;
+
+    // Create upload session
+    @PostMapping
+    public ResponseEntity<UploadStatus> createUpload(@RequestBody @Valid UploadSessionRequest request,
+                                                     UriComponentsBuilder uriComponentsBuilder) {
+        UploadSession session = uploadSessionService.create(request, UserPrincipal.current().objectId());
+        URI url = uriComponentsBuilder.path("/s3/uploads/{id}")
+                .buildAndExpand(session.getId())
+                .toUri();
+        return ResponseEntity.created(url).body(UploadStatus.of(session));
+    }
+
+    // Get received offset
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<UploadStatus> getUpload(@PathVariable String uploadId) {
+        return uploadSessionService.find(uploadId, UserPrincipal.current().objectId())
+                .map(session -> ResponseEntity.ok(UploadStatus.of(session)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // Send chunk (body is streamed to S3, request must have a Content-Length)
+    @PutMapping("/{uploadId}")
+    public ResponseEntity putChunk(@PathVariable String uploadId, @RequestParam long offset,
+                                   HttpServletRequest request) throws IOException {
+        Optional<UploadSession> found = uploadSessionService.find(uploadId, UserPrincipal.current().objectId());
+        if (found.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        UploadSession session = found.get();
+
+        // Chunks are sent in order, client resumes from the received offset
+        if (offset != session.getOffset()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(UploadStatus.of(session));
+        }
+        long length = request.getContentLengthLong();
+        if (length < 0) {
+            return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED).build();
+        }
+        long expected = uploadSessionService.expectedChunkLength(session, offset);
+        if (length != expected) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(400,
+                    "Chunk at offset " + offset + " must be " + expected + " bytes"));
+        }
+
+        return uploadSessionService.putChunk(session, offset, request.getInputStream(), length)
+                .map(updated -> ResponseEntity.ok(UploadStatus.of(updated)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body(UploadStatus.of(uploadSessionService.find(uploadId, session.getOwner()).orElse(session))));
+    }
+
+    // Finish upload (all bytes received)
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity completeUpload(@PathVariable String uploadId) {
+        Optional<UploadSession> found = uploadSessionService.find(uploadId, UserPrincipal.current().objectId());
+        if (found.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!found.get().isComplete()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(UploadStatus.of(found.get()));
+        }
+        StoredFile file = uploadSessionService.complete(found.get());
+        return ResponseEntity.ok(new S3Projection(s3Service.getFileUrl(file.getKey()), file.getKey()));
+    }
+
+    // Cancel upload
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity cancelUpload(@PathVariable String uploadId) {
+        Optional<UploadSession> found = uploadSessionService.find(uploadId, UserPrincipal.current().objectId());
+        if (found.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        uploadSessionService.abort(found.get());
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,16 @@
+package com.klass.server.s3;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
+
+// Start of a resumable upload
+public record UploadSessionRequest(
+        String keyPath,
+        @NotBlank(message = "File name cannot be blank or null")
+        String fileName,
+        @NotBlank(message = "Content type cannot be blank or null")
+        String contentType,
+        @Positive(message = "Size must be positive")
+        long size
+) {
+}
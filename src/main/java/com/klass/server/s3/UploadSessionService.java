@@ -0,0 +1,179 @@
+package com.klass.server.s3;
+
+import lombok.RequiredArgsConstructor;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+// Resumable uploads: chunks are sent in order and each one is stored as a part of an S3 multipart upload
+// A dropped connection only loses the chunk being sent, the client asks for the offset and resumes from there
+@Service
+@RequiredArgsConstructor
+public class UploadSessionService {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadSessionService.class);
+
+    // S3 limits: parts (but the last one) of at least 5MB, at most 10000 parts
+    private static final long MIN_PART_SIZE = DataSize.ofMegabytes(5).toBytes();
+
+    private static final int MAX_PARTS = 10_000;
+
+    @Value("${aws.s3.bucket.name}")
+    private String bucketName;
+
+    private final S3Client s3Client;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final UploadSessionRepository uploadSessionRepository;
+
+    private final StoredFileRepository storedFileRepository;
+
+    @Value("${aws.s3.uploads.chunk-size:8MB}")
+    private DataSize chunkSize;
+
+    // Sessions without chunks for this long are aborted
+    @Value("${aws.s3.uploads.session-ttl:24h}")
+    private Duration sessionTtl;
+
+    // Start multipart upload
+    public UploadSession create(UploadSessionRequest request, ObjectId owner) {
+        String key = Objects.requireNonNullElse(request.keyPath(), "") + S3Service.generateFileName(request.fileName());
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(request.contentType())
+                .build()).uploadId();
+
+        UploadSession session = new UploadSession();
+        session.setKey(key);
+        session.setUploadId(uploadId);
+        session.setContentType(request.contentType());
+        session.setSize(request.size());
+        session.setChunkSize(chunkSize(request.size()));
+        session.setOwner(owner);
+        session.setExpiresAt(Instant.now().plus(sessionTtl));
+        return uploadSessionRepository.save(session);
+    }
+
+    // Chunk size for a file (bigger chunks for files that would need more than MAX_PARTS)
+    private long chunkSize(long size) {
+        long minimum = (size + MAX_PARTS - 1) / MAX_PARTS;
+        return Math.max(Math.max(chunkSize.toBytes(), MIN_PART_SIZE), minimum);
+    }
+
+    // Session of owner (other users' sessions are not visible)
+    public Optional<UploadSession> find(String id, ObjectId owner) {
+        return uploadSessionRepository.findById(id)
+                .filter(session -> session.getOwner().equals(owner));
+    }
+
+    // Length the chunk starting at offset must have
+    public long expectedChunkLength(UploadSession session, long offset) {
+        return Math.min(session.getChunkSize(), session.getSize() - offset);
+    }
+
+    // Store chunk as the next part (streamed to S3, not buffered)
+    // Returns empty when another request stored a chunk at this offset first
+    public Optional<UploadSession> putChunk(UploadSession session, long offset, InputStream body, long length)
+            throws IOException {
+        int partNumber = (int) (offset / session.getChunkSize()) + 1;
+        String eTag;
+        try {
+            eTag = s3Client.uploadPart(UploadPartRequest.builder()
+                    .bucket(bucketName)
+                    .key(session.getKey())
+                    .uploadId(session.getUploadId())
+                    .partNumber(partNumber)
+                    .contentLength(length)
+                    .build(), RequestBody.fromInputStream(body, length)).eTag();
+        } catch (S3Exception e) {
+            throw new IOException("Failed to upload chunk to S3", e);
+        }
+
+        // Move offset only if it did not change since the chunk was checked
+        // (a duplicate chunk rewrites the same part with the same bytes)
+        return Optional.ofNullable(mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(session.getId()).and("offset").is(offset)),
+                new Update()
+                        .set("offset", offset + length)
+                        .push("parts", new UploadSession.Part(partNumber, eTag))
+                        .set("expiresAt", Instant.now().plus(sessionTtl)),
+                FindAndModifyOptions.options().returnNew(true),
+                UploadSession.class
+        ));
+    }
+
+    // Assemble parts into the final object (session must have received all bytes)
+    public StoredFile complete(UploadSession session) {
+        ArrayList<UploadSession.Part> parts = new ArrayList<>(session.getParts());
+        parts.sort(Comparator.comparingInt(UploadSession.Part::number));
+        s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(session.getKey())
+                .uploadId(session.getUploadId())
+                .multipartUpload(CompletedMultipartUpload.builder()
+                        .parts(parts.stream()
+                                .map(part -> CompletedPart.builder().partNumber(part.number()).eTag(part.eTag()).build())
+                                .toList())
+                        .build())
+                .build());
+        uploadSessionRepository.delete(session);
+        return storedFileRepository.save(new StoredFile(
+                session.getKey(), session.getContentType(), session.getSize(), session.getOwner(), null, null, 1,
+                Map.of(session.getOwner().toHexString(), 1L), true, false, false, null, null));
+    }
+
+    // Discard session and the parts stored so far
+    public void abort(UploadSession session) {
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(session.getKey())
+                    .uploadId(session.getUploadId())
+                    .build());
+        } catch (NoSuchUploadException e) {
+            // Already aborted or completed
+        }
+        uploadSessionRepository.delete(session);
+    }
+
+    // Abort expired sessions, so S3 does not keep (and bill) their parts
+    @Scheduled(fixedDelayString = "${aws.s3.uploads.cleanup-interval:PT15M}")
+    public void abortExpired() {
+        int aborted = 0;
+        for (UploadSession session : uploadSessionRepository.findByExpiresAtBefore(Instant.now())) {
+            try {
+                abort(session);
+                aborted++;
+            } catch (S3Exception e) {
+                log.warn("Failed to abort upload {} of {}", session.getUploadId(), session.getKey(), e);
+            }
+        }
+        if (aborted > 0) {
+            log.info("Aborted {} expired upload sessions", aborted);
+        }
+    }
+}
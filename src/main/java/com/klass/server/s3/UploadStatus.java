@@ -0,0 +1,18 @@
+package com.klass.server.s3;
+
+import java.time.Instant;
+
+// Progress of a resumable upload (client resumes sending from offset)
+public record UploadStatus(
+        String id,
+        String key,
+        long size,
+        long chunkSize,
+        long offset,
+        Instant expiresAt
+) {
+    public static UploadStatus of(UploadSession session) {
+        return new UploadStatus(session.getId(), session.getKey(), session.getSize(),
+                session.getChunkSize(), session.getOffset(), session.getExpiresAt());
+    }
+}
@@ -33,6 +33,8 @@ public class User implements UserDetails {
     @Id
     private String id;
 
+    // Users by role
+    @Indexed
     @NotBlank(message = "Role cannot be blank or null")
     @Pattern(regexp = "admin|student|instructor", message = "Role must be admin, student or instructor")
     private String role;
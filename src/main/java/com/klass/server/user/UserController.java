@@ -1,5 +1,6 @@
 package com.klass.server.user;
 
+import com.klass.server.common.security.PrincipalCache;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -27,6 +28,9 @@ public class UserController {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
     // Get all users
     // TODO filtering
     @PreAuthorize("hasRole('ADMIN')")
@@ -77,12 +81,16 @@ public class UserController {
             return ResponseEntity.notFound().build();
         } else {
             User userToSave = userToUpdate.get();
+            String previousEmail = userToSave.getEmail();
             userToSave.setRole(user.role());
             userToSave.setName(user.name());
             userToSave.setLastName(user.lastName());
             userToSave.setEmail(user.email());
             userToSave.setPicture(user.picture());
             userRepository.save(userToSave);
+            // Drop cached principal (role or email may have changed)
+            principalCache.invalidate(previousEmail);
+            principalCache.invalidate(userToSave.getEmail());
             return ResponseEntity.ok(userToSave.toProjection());
         }
     }
@@ -91,7 +99,9 @@ public class UserController {
     @PreAuthorize("hasRole('ADMIN')")
     @DeleteMapping("/{userId}")
     public ResponseEntity deleteUser(@PathVariable String userId) {
+        Optional<User> user = userRepository.findById(userId);
         userRepository.deleteById(userId);
+        user.ifPresent(value -> principalCache.invalidate(value.getEmail()));
         return ResponseEntity.noContent().build();
     }
 
@@ -1,9 +1,13 @@
 package com.klass.server.user;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.klass.server.s3.ThumbnailUrls;
+import com.klass.server.s3.Thumbnails;
 import org.bson.types.ObjectId;
 
+
 // Projected user data, used for GET requests (hide password and other sensitive data)
 public record UserProjection(
         @JsonSerialize(using = ToStringSerializer.class)
@@ -14,4 +18,8 @@ public record UserProjection(
         String email,
         String picture
 ) {
+    @JsonProperty
+    public ThumbnailUrls thumbnails() {
+        return Thumbnails.urls(picture);
+    }
 }
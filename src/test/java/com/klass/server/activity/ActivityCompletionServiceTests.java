@@ -0,0 +1,109 @@
+package com.klass.server.activity;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@Tag("integration")
+@SpringBootTest
+class ActivityCompletionServiceTests {
+
+    private static final int STUDENTS = 200;
+
+    @Autowired
+    private ActivityCompletionService activityCompletionService;
+
+    @Autowired
+    private ActivityRepository activityRepository;
+
+    @Autowired
+    private CourseProgressService courseProgressService;
+
+    private Activity activity;
+
+    @BeforeEach
+    void createActivity() {
+        activity = new Activity();
+        activity.setIdCourse(new ObjectId());
+        activity.setType("text");
+        activity.setName("Concurrent completion");
+        activity.setContent("content");
+        activity = activityRepository.save(activity);
+    }
+
+    @AfterEach
+    void deleteActivity() {
+        activityRepository.deleteById(activity.getId());
+        courseProgressService.courseRemoved(activity.getIdCourse());
+    }
+
+    @Test
+    void concurrentCompletionMarksAreNotLost() throws Exception {
+        List<ObjectId> students = new ArrayList<>();
+        for (int i = 0; i < STUDENTS; i++) {
+            students.add(new ObjectId());
+        }
+
+        // Every student marks at the same time (twice, marks must stay unique)
+        runConcurrently(students, student -> activityCompletionService.complete(activity.getId(), student));
+        runConcurrently(students, student -> activityCompletionService.complete(activity.getId(), student));
+
+        List<ObjectId> completedBy = activityRepository.findById(activity.getId()).orElseThrow().getCompletedBy();
+        assertEquals(STUDENTS, completedBy.size());
+        assertEquals(new HashSet<>(students), new HashSet<>(completedBy));
+
+        // Half of the students unmark while the other half marks again
+        List<ObjectId> removed = students.subList(0, STUDENTS / 2);
+        runConcurrently(students, student -> removed.contains(student)
+                ? activityCompletionService.uncomplete(activity.getId(), student)
+                : activityCompletionService.complete(activity.getId(), student));
+
+        completedBy = activityRepository.findById(activity.getId()).orElseThrow().getCompletedBy();
+        assertEquals(new HashSet<>(students.subList(STUDENTS / 2, STUDENTS)), new HashSet<>(completedBy));
+
+        // Repeated marks do not move progress counters
+        for (ObjectId student : students) {
+            assertEquals(removed.contains(student) ? 0 : 1,
+                    courseProgressService.find(activity.getIdCourse(), student).completed());
+        }
+    }
+
+    @Test
+    void missingActivityIsReported() {
+        assertFalse(activityCompletionService.complete(new ObjectId().toHexString(), new ObjectId()));
+        assertFalse(activityCompletionService.uncomplete(new ObjectId().toHexString(), new ObjectId()));
+    }
+
+    private void runConcurrently(List<ObjectId> students, ThrowingFunction action) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (ObjectId student : students) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return action.apply(student);
+            }));
+        }
+        start.countDown();
+        for (Future<Boolean> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
+    private interface ThrowingFunction {
+        boolean apply(ObjectId student) throws Exception;
+    }
+}
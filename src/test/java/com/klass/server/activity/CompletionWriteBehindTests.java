@@ -0,0 +1,121 @@
+package com.klass.server.activity;
+
+import com.klass.server.course.CourseViewService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+class CompletionWriteBehindTests {
+
+    private BulkOperations bulk;
+
+    private CompletionWriteBehind writeBehind;
+
+    private CourseProgressService courseProgressService;
+
+    // Activities returned by the read before each write
+    private List<Activity> activities = List.of();
+
+    @BeforeEach
+    void createBuffer() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        bulk = Mockito.mock(BulkOperations.class);
+        Mockito.when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Activity.class))).thenReturn(bulk);
+        Mockito.when(mongoTemplate.aggregate(any(Aggregation.class), eq("activities"), eq(Activity.class)))
+                .thenAnswer(invocation -> new AggregationResults<>(activities, new Document()));
+        courseProgressService = Mockito.mock(CourseProgressService.class);
+        writeBehind = writeBehind(mongoTemplate, true);
+    }
+
+    private CompletionWriteBehind writeBehind(MongoTemplate mongoTemplate, boolean enabled) {
+        return new CompletionWriteBehind(mongoTemplate, courseProgressService, Mockito.mock(CourseViewService.class),
+                new SimpleMeterRegistry(), enabled, "sync", Duration.ofMillis(5), 500, 3);
+    }
+
+    @Test
+    void failedBatchIsRetried() throws Exception {
+        Mockito.when(bulk.execute())
+                .thenThrow(new DataAccessResourceFailureException("primary stepped down"))
+                .thenReturn(null);
+
+        CompletableFuture<Void> written = writeBehind.add(new ObjectId().toHexString(), new ObjectId(), true);
+
+        written.get(5, TimeUnit.SECONDS);
+        Mockito.verify(bulk, Mockito.times(2)).execute();
+    }
+
+    @Test
+    void batchIsDroppedAfterMaxRetries() {
+        Mockito.when(bulk.execute()).thenThrow(new DataAccessResourceFailureException("unreachable"));
+
+        CompletableFuture<Void> written = writeBehind.add(new ObjectId().toHexString(), new ObjectId(), true);
+
+        assertThrows(Exception.class, () -> written.get(10, TimeUnit.SECONDS));
+        // First attempt and 3 retries
+        Mockito.verify(bulk, Mockito.times(4)).execute();
+    }
+
+    @Test
+    void marksAfterShutdownAreWrittenOnCaller() throws Exception {
+        writeBehind.shutdown();
+
+        CompletableFuture<Void> written = writeBehind.add(new ObjectId().toHexString(), new ObjectId(), false);
+
+        assertTrue(written.isDone());
+        written.get();
+        Mockito.verify(bulk).execute();
+    }
+
+    @Test
+    void marksWhileDisabledAreWrittenOnCaller() throws Exception {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        Mockito.when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Activity.class))).thenReturn(bulk);
+        Mockito.when(mongoTemplate.aggregate(any(Aggregation.class), eq("activities"), eq(Activity.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+
+        CompletableFuture<Void> written = writeBehind(mongoTemplate, false)
+                .add(new ObjectId().toHexString(), new ObjectId(), true);
+
+        assertTrue(written.isDone());
+        written.get();
+        Mockito.verify(bulk).execute();
+    }
+
+    @Test
+    void countersMoveOnlyForMarksThatChangedCompletedBy() throws Exception {
+        ObjectId course = new ObjectId();
+        ObjectId alreadyCompleted = new ObjectId();
+        ObjectId newlyCompleted = new ObjectId();
+        ObjectId neverCompleted = new ObjectId();
+        Activity activity = new Activity();
+        activity.setId(new ObjectId().toHexString());
+        activity.setIdCourse(course);
+        activity.setCompletedBy(List.of(alreadyCompleted));
+        activities = List.of(activity);
+        writeBehind.shutdown();
+
+        writeBehind.add(activity.getId(), alreadyCompleted, true);
+        writeBehind.add(activity.getId(), newlyCompleted, true);
+        writeBehind.add(activity.getId(), neverCompleted, false).get();
+
+        Mockito.verify(courseProgressService).completed(Map.of(course, Map.of(newlyCompleted, 1)));
+    }
+}
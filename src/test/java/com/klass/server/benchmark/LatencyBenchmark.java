@@ -0,0 +1,98 @@
+package com.klass.server.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load test for a running server (a main class, not run with the test suite)
+// Start the server twice, with threads.virtual.enabled=true and =false (before: platform threads and
+// sequential reads), and compare p99 latency and maximum concurrency of the two runs:
+//   ./mvnw test-compile
+//   java -cp target/test-classes com.klass.server.benchmark.LatencyBenchmark \
+//       http://localhost:8080/api <jwt> /courses/<id> [seconds per level] [p99 limit ms]
+// Concurrency doubles from 50 until the error rate passes 1% or p99 passes the limit,
+// the last level within both is the maximum concurrency
+public class LatencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args[0];
+        String token = args[1];
+        String path = args[2];
+        Duration levelDuration = Duration.ofSeconds(args.length > 3 ? Long.parseLong(args[3]) : 20);
+        long p99LimitMillis = args.length > 4 ? Long.parseLong(args[4]) : 1000;
+
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Authorization", "Bearer " + token)
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+
+        System.out.printf("%8s %10s %10s %10s %10s %8s%n", "clients", "requests", "p50 ms", "p99 ms", "req/s", "errors");
+        int maxConcurrency = 0;
+        for (int clients = 50; clients <= 12_800; clients *= 2) {
+            Result result = run(client, request, clients, levelDuration);
+            System.out.printf("%8d %10d %10.1f %10.1f %10.0f %7.2f%%%n", clients, result.requests(),
+                    result.p50Millis(), result.p99Millis(),
+                    result.requests() / (double) levelDuration.toSeconds(), result.errorRate() * 100);
+            if (result.errorRate() > 0.01 || result.p99Millis() > p99LimitMillis) {
+                break;
+            }
+            maxConcurrency = clients;
+        }
+        System.out.println("Max concurrency within limits: " + maxConcurrency);
+    }
+
+    // Each client sends requests back to back for the duration
+    private static Result run(HttpClient client, HttpRequest request, int clients, Duration duration)
+            throws InterruptedException {
+        long end = System.nanoTime() + duration.toNanos();
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong errors = new AtomicLong();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                executor.execute(() -> {
+                    while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() >= 400) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies.add(System.nanoTime() - start);
+                    }
+                });
+            }
+        }
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        return new Result(sorted.size(), percentile(sorted, 0.50), percentile(sorted, 0.99),
+                sorted.isEmpty() ? 1 : errors.get() / (double) sorted.size());
+    }
+
+    private static double percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1_000_000.0;
+    }
+
+    private record Result(long requests, double p50Millis, double p99Millis, double errorRate) {
+    }
+}
@@ -0,0 +1,92 @@
+package com.klass.server.common.concurrency;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FanOutTests {
+
+    @Test
+    void readsRunAtTheSameTime() {
+        FanOut fanOut = new FanOut(true);
+        // Each read waits for the other one to start (sequential reads would never see both arrive)
+        CountDownLatch bothStarted = new CountDownLatch(2);
+
+        int result = fanOut.both(() -> {
+            bothStarted.countDown();
+            await(bothStarted);
+            return 1;
+        }, () -> {
+            bothStarted.countDown();
+            await(bothStarted);
+            return 2;
+        }, Integer::sum);
+
+        assertEquals(3, result);
+    }
+
+    @Test
+    void failedReadWaitsForForkedReadToStop() throws InterruptedException {
+        FanOut fanOut = new FanOut(true);
+        CountDownLatch forkedStarted = new CountDownLatch(1);
+        AtomicBoolean forkedStopped = new AtomicBoolean();
+
+        assertThrows(IllegalStateException.class, () -> fanOut.both(() -> {
+            forkedStarted.countDown();
+            try {
+                return sleep(10_000, 1);
+            } finally {
+                forkedStopped.set(true);
+            }
+        }, () -> {
+            await(forkedStarted);
+            throw new IllegalStateException("Read failed");
+        }, Integer::sum));
+
+        // Forked read was cancelled and had finished when the failure was rethrown
+        assertTrue(forkedStopped.get());
+    }
+
+    @Test
+    void failureOfForkedReadIsRethrown() {
+        FanOut fanOut = new FanOut(true);
+
+        assertThrows(IllegalArgumentException.class, () -> fanOut.both(() -> {
+            throw new IllegalArgumentException("Read failed");
+        }, () -> 2, (Integer first, Integer second) -> first + second));
+    }
+
+    @Test
+    void readsAreSequentialWithoutVirtualThreads() {
+        FanOut fanOut = new FanOut(false);
+        String caller = Thread.currentThread().getName();
+
+        String threads = fanOut.both(() -> Thread.currentThread().getName(), () -> Thread.currentThread().getName(),
+                (first, second) -> first + "," + second);
+
+        assertEquals(caller + "," + caller, threads);
+    }
+
+    private static int sleep(long millis, int value) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+        return value;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.klass.server.common.indexes;
+
+import com.klass.server.activity.ActivityPipelines;
+import com.klass.server.common.security.UserPrincipal;
+import com.klass.server.course.CourseFilter;
+import com.klass.server.course.CoursePipelines;
+import com.mongodb.client.MongoClient;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Explains every controller aggregation over a seeded dataset (separate database, declared indexes only)
+// and fails on collection scans: a COLLSCAN on the pipeline's collection, or a $lookup without an index
+@Tag("integration")
+@SpringBootTest
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class AggregationExplainTests {
+
+    private static final int INSTRUCTORS = 20;
+    private static final int STUDENTS = 500;
+    private static final int COURSES = 100;
+    private static final int LESSONS = 5;
+    private static final int ACTIVITIES_PER_LESSON = 4;
+    private static final int STUDENTS_PER_COURSE = 30;
+
+    @Autowired
+    private MongoClient mongoClient;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CoursePipelines coursePipelines;
+
+    @Autowired
+    private ActivityPipelines activityPipelines;
+
+    private MongoTemplate explainTemplate;
+
+    private final List<ObjectId> instructors = new ArrayList<>();
+    private final List<ObjectId> students = new ArrayList<>();
+    private final List<ObjectId> courses = new ArrayList<>();
+    private final List<ObjectId> activities = new ArrayList<>();
+
+    @BeforeAll
+    void seed() {
+        explainTemplate = new MongoTemplate(mongoClient, mongoTemplate.getDb().getName() + "_explain");
+        explainTemplate.getDb().drop();
+
+        // Declared index plan only
+        IndexPlanVerifier.declaredIndexes(mongoTemplate.getConverter().getMappingContext())
+                .forEach((collection, indexes) -> indexes.forEach(explainTemplate.indexOps(collection)::ensureIndex));
+
+        Random random = new Random(42);
+        List<Document> users = new ArrayList<>();
+        for (int i = 0; i < INSTRUCTORS; i++) {
+            instructors.add(new ObjectId());
+            users.add(user(instructors.get(i), "instructor", i));
+        }
+        for (int i = 0; i < STUDENTS; i++) {
+            students.add(new ObjectId());
+            users.add(user(students.get(i), "student", INSTRUCTORS + i));
+        }
+        explainTemplate.insert(users, "users");
+
+        List<Document> courseDocuments = new ArrayList<>();
+        List<Document> activityDocuments = new ArrayList<>();
+        List<Document> submissions = new ArrayList<>();
+        for (int c = 0; c < COURSES; c++) {
+            ObjectId courseId = new ObjectId();
+            courses.add(courseId);
+            List<ObjectId> enrolled = new ArrayList<>();
+            for (int s = 0; s < STUDENTS_PER_COURSE; s++) {
+                enrolled.add(students.get(random.nextInt(STUDENTS)));
+            }
+            List<Document> lessons = new ArrayList<>();
+            for (int l = 0; l < LESSONS; l++) {
+                List<ObjectId> lessonActivities = new ArrayList<>();
+                for (int a = 0; a < ACTIVITIES_PER_LESSON; a++) {
+                    ObjectId activityId = new ObjectId();
+                    activities.add(activityId);
+                    lessonActivities.add(activityId);
+                    activityDocuments.add(new Document("_id", activityId)
+                            .append("idCourse", courseId)
+                            .append("type", a == 0 ? "assign" : "text")
+                            .append("name", "Activity " + a)
+                            .append("content", "content")
+                            .append("enabled", true)
+                            .append("completedBy", enrolled.subList(0, random.nextInt(STUDENTS_PER_COURSE))));
+                    if (a == 0) {
+                        for (ObjectId student : enrolled.subList(0, 10)) {
+                            submissions.add(new Document("activity", activityId)
+                                    .append("student", student)
+                                    .append("file", "file.pdf"));
+                        }
+                    }
+                }
+                lessons.add(new Document("order", l).append("name", "Lesson " + l).append("activities", lessonActivities));
+            }
+            courseDocuments.add(new Document("_id", courseId)
+                    .append("name", "Course " + c)
+                    .append("slug", "course-" + c)
+                    .append("category", "category-" + (c % 5))
+                    .append("published", c % 3 != 0)
+                    .append("instructor", instructors.get(c % INSTRUCTORS))
+                    .append("students", new ArrayList<>(new LinkedHashSet<>(enrolled)))
+                    .append("lessons", lessons));
+        }
+        explainTemplate.insert(courseDocuments, "courses");
+        explainTemplate.insert(activityDocuments, "activities");
+        // Duplicated (activity, student) pairs are not possible: students per course are distinct
+        explainTemplate.insert(submissions.stream()
+                .collect(LinkedHashMap<String, Document>::new,
+                        (unique, submission) -> unique.putIfAbsent(
+                                submission.get("activity") + "-" + submission.get("student"), submission),
+                        Map::putAll)
+                .values(), "submissions");
+    }
+
+    @AfterAll
+    void dropDatabase() {
+        explainTemplate.getDb().drop();
+    }
+
+    @Test
+    void coursePagesUseIndexes() {
+        CourseFilter noFilter = new CourseFilter(null, null, null);
+        CourseFilter filter = new CourseFilter("category-1", true, null);
+        for (UserPrincipal user : users()) {
+            assertNoCollectionScans(coursePipelines.coursePage(user, noFilter, null, 20), "courses", false);
+            assertNoCollectionScans(coursePipelines.coursePage(user, filter, courses.get(10), 20), "courses", false);
+            assertNoCollectionScans(coursePipelines.coursePreviewPage(user, noFilter, null, 20), "courses", false);
+            assertNoCollectionScans(coursePipelines.coursePreviewPage(user, filter, courses.get(10), 20), "courses", false);
+        }
+    }
+
+    @Test
+    void courseDetailsUseIndexes() {
+        assertNoCollectionScans(coursePipelines.details().bind(Criteria.where("_id").is(courses.get(0))),
+                "courses", false);
+        // Course views refreshed after an activity changes
+        assertNoCollectionScans(coursePipelines.details().bind(Criteria.where("lessons.activities").is(activities.get(0))),
+                "courses", false);
+    }
+
+    @Test
+    void activityDetailsUseIndexes() {
+        assertNoCollectionScans(activityPipelines.details().bind(Criteria.where("_id").is(activities.get(0))),
+                "activities", false);
+        // Admin listing reads every activity, only its lookups must use indexes
+        assertNoCollectionScans(activityPipelines.allActivities(), "activities", true);
+    }
+
+    private List<UserPrincipal> users() {
+        return List.of(
+                new UserPrincipal(new ObjectId().toHexString(), "admin@klass.com", "admin"),
+                new UserPrincipal(instructors.get(0).toHexString(), "instructor@klass.com", "instructor"),
+                new UserPrincipal(students.get(0).toHexString(), "student@klass.com", "student")
+        );
+    }
+
+    private void assertNoCollectionScans(Aggregation aggregation, String collection, boolean fullScanExpected) {
+        Document explain = explainTemplate.getDb().runCommand(new Document("explain", new Document("aggregate", collection)
+                .append("pipeline", aggregation.toPipeline(Aggregation.DEFAULT_CONTEXT))
+                .append("cursor", new Document()))
+                .append("verbosity", "executionStats"));
+
+        List<String> scans = new ArrayList<>();
+        collectScans(explain, scans);
+        if (fullScanExpected) {
+            scans.removeIf(scan -> scan.equals("COLLSCAN"));
+        }
+        assertEquals(List.of(), scans, () -> "Collection scans in " + aggregation + "\n" + explain.toJson());
+    }
+
+    // Plan stages scanning a collection (root COLLSCAN, $lookup collection scans or unindexed join strategies)
+    private static void collectScans(Object node, List<String> scans) {
+        if (node instanceof Document document) {
+            if ("COLLSCAN".equals(document.get("stage"))) {
+                scans.add("COLLSCAN");
+            }
+            if (document.get("collectionScans") instanceof Number count && count.longValue() > 0) {
+                scans.add("$lookup collectionScans=" + count);
+            }
+            Object strategy = document.get("strategy");
+            if ("NestedLoopJoin".equals(strategy) || "HashJoin".equals(strategy)) {
+                scans.add("$lookup " + strategy + " on " + document.get("foreignCollection"));
+            }
+            document.values().forEach(value -> collectScans(value, scans));
+        } else if (node instanceof List<?> list) {
+            list.forEach(value -> collectScans(value, scans));
+        }
+    }
+
+    private static Document user(ObjectId id, String role, int i) {
+        return new Document("_id", id)
+                .append("role", role)
+                .append("name", "User")
+                .append("lastName", String.valueOf(i))
+                .append("email", "user" + i + "@klass.com")
+                .append("password", "password");
+    }
+}
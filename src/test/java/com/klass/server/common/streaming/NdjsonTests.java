@@ -0,0 +1,47 @@
+package com.klass.server.common.streaming;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NdjsonTests {
+
+    record Item(String name, int count) {
+    }
+
+    @Test
+    void writesOneDocumentPerLineAndClosesCursor() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Ndjson.body(() -> Stream.of(new Item("a", 1), new Item("b", 2)).onClose(() -> closed.set(true)),
+                new ObjectMapper()).writeTo(output);
+
+        assertEquals("{\"name\":\"a\",\"count\":1}\n{\"name\":\"b\",\"count\":2}\n",
+                output.toString(StandardCharsets.UTF_8));
+        assertTrue(closed.get());
+    }
+
+    @Test
+    void cursorIsClosedWhenWritingFails() {
+        AtomicBoolean closed = new AtomicBoolean();
+
+        assertThrows(IOException.class, () -> Ndjson.body(
+                () -> Stream.of(new Item("a", 1)).onClose(() -> closed.set(true)), new ObjectMapper()
+        ).writeTo(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Client disconnected");
+            }
+        }));
+        assertTrue(closed.get());
+    }
+}
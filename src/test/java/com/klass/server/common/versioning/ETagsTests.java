@@ -0,0 +1,44 @@
+package com.klass.server.common.versioning;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ETagsTests {
+
+    @Test
+    void ifMatchUsesStrongComparison() {
+        String etag = ETags.of("3.1700000000000");
+        assertTrue(ETags.matches(etag, etag));
+        assertTrue(ETags.matches("\"1\", " + etag, etag));
+        assertTrue(ETags.matches("*", etag));
+        assertFalse(ETags.matches("W/" + etag, etag));
+        assertFalse(ETags.matches(ETags.of("2.1700000000000"), etag));
+    }
+
+    @Test
+    void versionIsReadFromTag() {
+        assertEquals(3, ETags.version(ETags.of("3.1700000000000")));
+        assertEquals(7, ETags.version(ETags.of("7")));
+    }
+
+    @Test
+    void ifMatchIsComparedWithVersionOfTag() {
+        assertTrue(ETags.matchesVersion(ETags.of("3.1700000000000"), 3));
+        assertTrue(ETags.matchesVersion("\"1\", " + ETags.of("3"), 3));
+        assertTrue(ETags.matchesVersion("*", 3));
+        assertFalse(ETags.matchesVersion("W/" + ETags.of("3"), 3));
+        assertFalse(ETags.matchesVersion(ETags.of("2.1700000000000"), 3));
+        assertFalse(ETags.matchesVersion(ETags.of("a1b2"), 3));
+    }
+
+    @Test
+    void listTagDependsOnItemTagsAndOrder() {
+        String tag = ETags.ofAll(List.of("a:1", "b:1"));
+        assertEquals(tag, ETags.ofAll(List.of("a:1", "b:1")));
+        assertNotEquals(tag, ETags.ofAll(List.of("b:1", "a:1")));
+        assertNotEquals(tag, ETags.ofAll(List.of("a:1", "b:2")));
+    }
+}
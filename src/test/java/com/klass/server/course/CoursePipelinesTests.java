@@ -0,0 +1,71 @@
+package com.klass.server.course;
+
+import com.klass.server.activity.ActivityPipelines;
+import com.klass.server.common.security.UserPrincipal;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CoursePipelinesTests {
+
+    private static final int THREADS = 8;
+    private static final int REQUESTS_PER_THREAD = 1000;
+
+    private final CoursePipelines coursePipelines = new CoursePipelines();
+    private final ActivityPipelines activityPipelines = new ActivityPipelines();
+
+    private final List<UserPrincipal> users = List.of(
+            new UserPrincipal(new ObjectId().toHexString(), "admin@klass.com", "admin"),
+            new UserPrincipal(new ObjectId().toHexString(), "instructor@klass.com", "instructor"),
+            new UserPrincipal(new ObjectId().toHexString(), "student@klass.com", "student")
+    );
+
+    @Test
+    void pipelineLengthStaysConstantUnderConcurrentRequests() throws Exception {
+        int templateSize = coursePipelines.details().size();
+        int previewTemplateSize = coursePipelines.preview().size();
+        int activityTemplateSize = activityPipelines.details().size();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                    UserPrincipal user = users.get(i % users.size());
+                    // Match, sort and limit + template stages + final sort
+                    assertEquals(templateSize + 4, stages(coursePipelines.coursePage(
+                            user, new CourseFilter(null, null, null), new ObjectId(), 20)));
+                    assertEquals(previewTemplateSize + 3, stages(coursePipelines.coursePreviewPage(
+                            user, new CourseFilter("math", true, null), null, 20)));
+                    assertEquals(activityTemplateSize + 1,
+                            stages(activityPipelines.activityById(new ObjectId().toHexString())));
+                    assertEquals(activityTemplateSize, stages(activityPipelines.allActivities()));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Shared templates were never modified
+        assertEquals(templateSize, coursePipelines.details().size());
+        assertEquals(previewTemplateSize, coursePipelines.preview().size());
+        assertEquals(activityTemplateSize, activityPipelines.details().size());
+    }
+
+    private static int stages(Aggregation aggregation) {
+        return aggregation.getPipeline().getOperations().size();
+    }
+}
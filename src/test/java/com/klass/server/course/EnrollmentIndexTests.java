@@ -0,0 +1,116 @@
+package com.klass.server.course;
+
+import com.klass.server.common.security.UserPrincipal;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EnrollmentIndexTests {
+
+    private final ObjectId instructor = new ObjectId();
+
+    private final ObjectId student = new ObjectId();
+
+    private final ObjectId other = new ObjectId();
+
+    private EnrollmentIndex enrollmentIndex;
+
+    private Course published;
+
+    private Course draft;
+
+    @BeforeEach
+    void buildIndex() {
+        enrollmentIndex = new EnrollmentIndex();
+        enrollmentIndex.enabled = true;
+        published = course(true, student, other);
+        draft = course(false, student);
+        enrollmentIndex.build(List.of(published, draft).iterator());
+    }
+
+    @Test
+    void denialsFollowCourseRules() {
+        ObjectId publishedId = new ObjectId(published.getId());
+        ObjectId draftId = new ObjectId(draft.getId());
+
+        assertFalse(enrollmentIndex.deniesRead(publishedId, user(student, "student")));
+        // Unpublished courses are hidden from students
+        assertTrue(enrollmentIndex.deniesRead(draftId, user(student, "student")));
+        assertTrue(enrollmentIndex.deniesRead(publishedId, user(new ObjectId(), "student")));
+        assertFalse(enrollmentIndex.deniesRead(draftId, user(instructor, "instructor")));
+        assertTrue(enrollmentIndex.deniesRead(draftId, user(new ObjectId(), "instructor")));
+        assertFalse(enrollmentIndex.deniesRead(draftId, user(new ObjectId(), "admin")));
+        // Unknown course is left to Mongo
+        assertFalse(enrollmentIndex.deniesRead(new ObjectId(), user(student, "student")));
+    }
+
+    @Test
+    void writesOfAnotherInstanceAreSeenAfterRefresh() {
+        ObjectId publishedId = new ObjectId(published.getId());
+        ObjectId enrolled = new ObjectId();
+        // Another instance removes the student and enrolls a new one (no event on this instance)
+        Course updated = course(true, other, enrolled);
+        updated.setId(published.getId());
+
+        // Not denied, so the read is checked against Mongo (where the student is no longer enrolled)
+        assertFalse(enrollmentIndex.deniesRead(publishedId, user(student, "student")));
+        // Stale denial until the next refresh
+        assertTrue(enrollmentIndex.deniesRead(publishedId, user(enrolled, "student")));
+
+        enrollmentIndex.build(List.of(updated, draft).iterator());
+
+        assertTrue(enrollmentIndex.deniesRead(publishedId, user(student, "student")));
+        assertFalse(enrollmentIndex.deniesRead(publishedId, user(enrolled, "student")));
+    }
+
+    @Test
+    void savesAndDeletesKeepIndexInSync() {
+        assertEquals(Optional.of(List.of(new ObjectId(published.getId()), new ObjectId(draft.getId()))),
+                enrollmentIndex.coursesOf(student));
+
+        // Student leaves the published course, a new student joins it
+        ObjectId joined = new ObjectId();
+        published.setStudents(new ArrayList<>(List.of(other, joined)));
+        enrollmentIndex.onAfterSave(new AfterSaveEvent<>(published, new Document(), "courses"));
+
+        assertTrue(enrollmentIndex.deniesRead(new ObjectId(published.getId()), user(student, "student")));
+        assertFalse(enrollmentIndex.deniesRead(new ObjectId(published.getId()), user(joined, "student")));
+        assertEquals(Optional.of(List.of(new ObjectId(draft.getId()))), enrollmentIndex.coursesOf(student));
+        assertEquals(Optional.of(List.of(new ObjectId(published.getId()))), enrollmentIndex.coursesOf(joined));
+
+        enrollmentIndex.onAfterDelete(new AfterDeleteEvent<>(
+                new Document("_id", new ObjectId(draft.getId())), Course.class, "courses"));
+
+        assertFalse(enrollmentIndex.deniesRead(new ObjectId(draft.getId()), user(student, "student")));
+        assertEquals(Optional.of(List.of()), enrollmentIndex.coursesOf(student));
+    }
+
+    @Test
+    void disabledIndexAnswersNothing() {
+        enrollmentIndex.enabled = false;
+        assertFalse(enrollmentIndex.deniesRead(new ObjectId(draft.getId()), user(student, "student")));
+        assertEquals(Optional.empty(), enrollmentIndex.coursesOf(student));
+    }
+
+    private Course course(boolean isPublished, ObjectId... students) {
+        Course course = new Course();
+        course.setId(new ObjectId().toHexString());
+        course.setInstructor(instructor);
+        course.setPublished(isPublished);
+        course.setStudents(new ArrayList<>(List.of(students)));
+        return course;
+    }
+
+    private static UserPrincipal user(ObjectId id, String role) {
+        return new UserPrincipal(id.toHexString(), "user@klass.com", role);
+    }
+}
@@ -0,0 +1,85 @@
+package com.klass.server.course;
+
+import com.klass.server.common.security.UserPrincipal;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+// Access granted by the enrollment index of this instance is confirmed against Mongo
+class ReactiveCourseControllerTests {
+
+    private final ObjectId student = new ObjectId();
+
+    private final ObjectId courseId = new ObjectId();
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    private ReactiveCourseController controller;
+
+    @BeforeEach
+    void createController() {
+        // This instance indexed the student as enrolled in the published course
+        Course course = new Course();
+        course.setId(courseId.toHexString());
+        course.setInstructor(new ObjectId());
+        course.setPublished(true);
+        course.setStudents(new ArrayList<>(List.of(student)));
+        EnrollmentIndex enrollmentIndex = new EnrollmentIndex();
+        enrollmentIndex.enabled = true;
+        enrollmentIndex.build(List.of(course).iterator());
+
+        reactiveMongoTemplate = Mockito.mock(ReactiveMongoTemplate.class);
+        Mockito.when(reactiveMongoTemplate.findOne(any(Query.class), eq(CourseProjection.class),
+                        eq(CourseViewService.COLLECTION)))
+                .thenReturn(Mono.just(new CourseProjection(courseId.toHexString(), "Course", "course", null, null,
+                        null, true, null, List.of(), List.of())));
+        controller = new ReactiveCourseController(reactiveMongoTemplate);
+        controller.coursePipelines = new CoursePipelines();
+        controller.enrollmentIndex = enrollmentIndex;
+
+        UserPrincipal principal = new UserPrincipal(student.toHexString(), "student@klass.com", "student");
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.authorities()));
+    }
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void studentRemovedByAnotherInstanceCannotRead() {
+        // Course as written by another instance: the student is no longer enrolled
+        Mockito.when(reactiveMongoTemplate.exists(any(Query.class), eq(Course.class))).thenReturn(Mono.just(false));
+
+        ResponseEntity<CourseProjection> response = controller.getCourseById(courseId.toHexString()).block();
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
+
+    @Test
+    void enrolledStudentReadsCourseView() {
+        Mockito.when(reactiveMongoTemplate.exists(any(Query.class), eq(Course.class))).thenReturn(Mono.just(true));
+
+        ResponseEntity<CourseProjection> response = controller.getCourseById(courseId.toHexString()).block();
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(courseId.toHexString(), response.getBody().id());
+    }
+}
@@ -0,0 +1,78 @@
+package com.klass.server.s3;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageDerivativesTests {
+
+    private InMemoryS3Client s3Client;
+
+    private ImageDerivatives imageDerivatives;
+
+    @BeforeEach
+    void createDerivatives() {
+        s3Client = new InMemoryS3Client();
+        imageDerivatives = new ImageDerivatives(s3Client, Mockito.mock(MongoTemplate.class),
+                new SimpleMeterRegistry(), "klass-test", 1, 10);
+    }
+
+    @AfterEach
+    void shutdown() {
+        imageDerivatives.shutdown();
+    }
+
+    @Test
+    void thumbnailsAreStoredNextToOriginal() throws IOException {
+        s3Client.objects.put("cas/photo", png(2000, 1000));
+
+        imageDerivatives.generateNow("cas/photo");
+
+        assertSize(s3Client.objects.get("cas/photo@64.jpg"), 64, 32);
+        assertSize(s3Client.objects.get("cas/photo@256.jpg"), 256, 128);
+        assertSize(s3Client.objects.get("cas/photo@1024.jpg"), 1024, 512);
+    }
+
+    @Test
+    void smallImagesAreNotUpscaled() throws IOException {
+        s3Client.objects.put("cas/icon", png(100, 50));
+
+        imageDerivatives.generateNow("cas/icon");
+
+        assertSize(s3Client.objects.get("cas/icon@64.jpg"), 64, 32);
+        assertSize(s3Client.objects.get("cas/icon@256.jpg"), 100, 50);
+    }
+
+    @Test
+    void filesThatAreNotImagesAreSkipped() throws IOException {
+        s3Client.objects.put("cas/notes", "not an image".getBytes());
+
+        imageDerivatives.generateNow("cas/notes");
+
+        assertEquals(1, s3Client.objects.size());
+    }
+
+    private static void assertSize(byte[] jpeg, int width, int height) throws IOException {
+        assertNotNull(jpeg);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", output);
+        return output.toByteArray();
+    }
+}
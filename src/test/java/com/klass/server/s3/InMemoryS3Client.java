@@ -0,0 +1,144 @@
+package com.klass.server.s3;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Utilities;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// In-process S3 stand-in (single bucket) for service tests
+class InMemoryS3Client implements S3Client {
+
+    final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+    final Map<String, ConcurrentSkipListMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+
+    final AtomicInteger putRequests = new AtomicInteger();
+
+    final AtomicInteger partRequests = new AtomicInteger();
+
+    final AtomicInteger abortedUploads = new AtomicInteger();
+
+    final AtomicInteger getRequests = new AtomicInteger();
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+        putRequests.incrementAndGet();
+        objects.put(request.key(), read(requestBody));
+        return PutObjectResponse.builder().eTag(UUID.randomUUID().toString()).build();
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new ConcurrentSkipListMap<>());
+        return CreateMultipartUploadResponse.builder().uploadId(uploadId).key(request.key()).build();
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody requestBody) {
+        partRequests.incrementAndGet();
+        uploads.get(request.uploadId()).put(request.partNumber(), read(requestBody));
+        return UploadPartResponse.builder().eTag("part-" + request.partNumber()).build();
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        ConcurrentSkipListMap<Integer, byte[]> parts = uploads.remove(request.uploadId());
+        ByteArrayOutputStream object = new ByteArrayOutputStream();
+        request.multipartUpload().parts().forEach(part -> object.writeBytes(parts.get(part.partNumber())));
+        objects.put(request.key(), object.toByteArray());
+        return CompleteMultipartUploadResponse.builder().key(request.key()).build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        abortedUploads.incrementAndGet();
+        uploads.remove(request.uploadId());
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        byte[] object = object(request.key());
+        return HeadObjectResponse.builder()
+                .contentLength((long) object.length)
+                .contentType("application/octet-stream")
+                .eTag(eTag(object))
+                .build();
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest request,
+                                       ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+        getRequests.incrementAndGet();
+        byte[] object = object(request.key());
+        if (request.ifMatch() != null && !request.ifMatch().equals(eTag(object))) {
+            throw (S3Exception) S3Exception.builder().statusCode(412).message("Precondition Failed").build();
+        }
+        GetObjectResponse response = GetObjectResponse.builder()
+                .contentLength((long) object.length)
+                .eTag(eTag(object))
+                .build();
+        try {
+            return responseTransformer.transform(response,
+                    AbortableInputStream.create(new ByteArrayInputStream(object)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+        objects.remove(request.key());
+        return DeleteObjectResponse.builder().build();
+    }
+
+    @Override
+    public S3Utilities utilities() {
+        return S3Utilities.builder().region(Region.US_EAST_1).build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private byte[] object(String key) {
+        byte[] object = objects.get(key);
+        if (object == null) {
+            throw (S3Exception) NoSuchKeyException.builder().statusCode(404).message("Not Found").build();
+        }
+        return object;
+    }
+
+    private static String eTag(byte[] object) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(object)) + "\"";
+    }
+
+    private static byte[] read(RequestBody requestBody) {
+        try (InputStream inputStream = requestBody.contentStreamProvider().newStream()) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.klass.server.s3;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaCacheTests {
+
+    @TempDir
+    Path directory;
+
+    private InMemoryS3Client s3Client;
+
+    private MediaCache mediaCache;
+
+    @BeforeEach
+    void createCache() throws IOException {
+        s3Client = new InMemoryS3Client();
+        mediaCache = new MediaCache(s3Client, new SimpleMeterRegistry(), "klass-test", directory.resolve("media"),
+                DataSize.ofBytes(300), DataSize.ofBytes(200), Duration.ofMinutes(5));
+    }
+
+    @Test
+    void objectIsFetchedOnceAndServedFromDisk() throws IOException {
+        s3Client.objects.put("videos/lecture.mp4", new byte[]{1, 2, 3});
+
+        CachedMedia first = mediaCache.get("videos/lecture.mp4").orElseThrow();
+        CachedMedia second = mediaCache.get("videos/lecture.mp4").orElseThrow();
+
+        assertEquals(1, s3Client.getRequests.get());
+        assertEquals(first.path(), second.path());
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(second.path()));
+    }
+
+    @Test
+    void concurrentMissesShareOneFetch() throws Exception {
+        s3Client.objects.put("videos/lecture.mp4", new byte[100]);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Optional<CachedMedia>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return mediaCache.get("videos/lecture.mp4");
+                }));
+            }
+            start.countDown();
+            for (Future<Optional<CachedMedia>> result : results) {
+                assertTrue(result.get(5, TimeUnit.SECONDS).isPresent());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Requests arriving after the fetch are hits, so at most one fetch ran at a time
+        assertEquals(1, s3Client.getRequests.get());
+    }
+
+    @Test
+    void leastRecentlyUsedObjectIsEvicted() throws IOException {
+        s3Client.objects.put("a", new byte[150]);
+        s3Client.objects.put("b", new byte[100]);
+        s3Client.objects.put("c", new byte[100]);
+
+        Path a = mediaCache.get("a").orElseThrow().path();
+        mediaCache.get("b");
+        // a used again, so b is the least recently used one
+        mediaCache.get("a");
+        mediaCache.get("c");
+
+        assertTrue(Files.exists(a));
+        mediaCache.get("b");
+        assertEquals(4, s3Client.getRequests.get());
+    }
+
+    @Test
+    void largeObjectIsNotCached() throws IOException {
+        s3Client.objects.put("videos/long.mp4", new byte[250]);
+
+        assertTrue(mediaCache.get("videos/long.mp4").isEmpty());
+        assertEquals(0, s3Client.getRequests.get());
+    }
+
+    @Test
+    void missingObjectIsNotFound() {
+        assertThrows(FileNotFoundException.class, () -> mediaCache.get("missing.pdf"));
+    }
+}
@@ -0,0 +1,92 @@
+package com.klass.server.s3;
+
+import com.klass.server.common.security.TokenService;
+import com.klass.server.user.User;
+import com.klass.server.user.UserRepository;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.*;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+// Uploads go through the servlet container, so request size limits apply (MockMvc does not enforce them)
+@Tag("integration")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class S3ControllerTests {
+
+    // Above aws.s3.multipart.threshold (16MB)
+    private static final int LARGE_FILE = 20 * 1024 * 1024;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TokenService tokenService;
+
+    @MockBean
+    private S3Service s3Service;
+
+    private User user;
+
+    @BeforeEach
+    void createUser() {
+        user = new User();
+        user.setRole("student");
+        user.setName("Upload");
+        user.setLastName("Test");
+        user.setEmail("upload-test-" + System.nanoTime() + "@klass.com");
+        user.setPassword("password");
+        user = userRepository.save(user);
+    }
+
+    @AfterEach
+    void deleteUser() {
+        userRepository.deleteById(user.getId());
+    }
+
+    @Test
+    void fileAboveMultipartThresholdReachesUpload() {
+        Mockito.when(s3Service.uploadFileAsync(any(S3File.class), any(ObjectId.class)))
+                .thenReturn(CompletableFuture.completedFuture("cas/large"));
+        Mockito.when(s3Service.getFileUrl("cas/large")).thenReturn("https://bucket/cas/large");
+
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("keyPath", "videos/");
+        form.add("file", new ByteArrayResource(new byte[LARGE_FILE]) {
+            @Override
+            public String getFilename() {
+                return "lecture.mp4";
+            }
+        });
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        headers.setBearerAuth(tokenService.generateToken(user));
+
+        ResponseEntity<S3Projection> response = restTemplate.postForEntity(
+                "/s3/upload", new HttpEntity<>(form, headers), S3Projection.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        ArgumentCaptor<S3File> uploaded = ArgumentCaptor.forClass(S3File.class);
+        Mockito.verify(s3Service).uploadFileAsync(uploaded.capture(), eq(new ObjectId(user.getId())));
+        assertEquals(LARGE_FILE, uploaded.getValue().getFile().getSize());
+    }
+}
@@ -0,0 +1,187 @@
+package com.klass.server.s3;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+class S3ServiceTests {
+
+    private InMemoryS3Client s3Client;
+
+    private MongoTemplate mongoTemplate;
+
+    private S3Service s3Service;
+
+    private final ObjectId owner = new ObjectId();
+
+    @BeforeEach
+    void createService() {
+        s3Client = new InMemoryS3Client();
+        S3Presigner s3Presigner = S3Presigner.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                .build();
+        mongoTemplate = Mockito.mock(MongoTemplate.class);
+        s3Service = new S3Service(s3Client, s3Presigner, Mockito.mock(StoredFileRepository.class), mongoTemplate,
+                Mockito.mock(S3AsyncClient.class), new S3TransferQueue(new SimpleMeterRegistry(), 4, 16),
+                Mockito.mock(ImageDerivatives.class));
+        ReflectionTestUtils.setField(s3Service, "bucketName", "klass-test");
+        ReflectionTestUtils.setField(s3Service, "multipartThreshold", DataSize.ofKilobytes(64));
+        ReflectionTestUtils.setField(s3Service, "partSize", DataSize.ofKilobytes(16));
+        ReflectionTestUtils.setField(s3Service, "partParallelism", 3);
+        ReflectionTestUtils.setField(s3Service, "partThreads", 4);
+        s3Service.init();
+    }
+
+    @AfterEach
+    void shutdownService() {
+        s3Service.shutdown();
+    }
+
+    @Test
+    void smallFileIsSentAsSingleStreamedPut() throws IOException {
+        byte[] content = randomBytes(10_000);
+        recordUploads();
+
+        String key = s3Service.uploadFile(new S3File("docs/", file("notes file.pdf", content)), owner);
+
+        assertEquals(1, s3Client.putRequests.get());
+        assertEquals(0, s3Client.partRequests.get());
+        assertTrue(key.startsWith("docs/") && key.endsWith("-notes_file.pdf"));
+        assertArrayEquals(content, s3Client.objects.get(key));
+    }
+
+    @Test
+    void identicalFileIsStoredOnce() throws IOException {
+        byte[] content = randomBytes(10_000);
+        // Second upload finds the first one's entry for the same key path and content
+        List<Update> updates = new ArrayList<>();
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(Update.class),
+                        any(FindAndModifyOptions.class), eq(StoredFile.class)))
+                .thenAnswer(invocation -> {
+                    updates.add(invocation.getArgument(1));
+                    return entry(updates.get(0));
+                });
+
+        String first = s3Service.uploadFile(new S3File("course-1/", file("syllabus.pdf", content)), owner);
+        String second = s3Service.uploadFile(new S3File("course-1/", file("syllabus (1).pdf", content)), new ObjectId());
+
+        assertEquals(first, second);
+        // The second object was sent while hashing, then deleted
+        assertEquals(Set.of(first), s3Client.objects.keySet());
+        List<Query> references = captureReferences();
+        assertEquals(references.get(0).getQueryObject().get("sha256"), references.get(1).getQueryObject().get("sha256"));
+    }
+
+    @Test
+    void largeFileIsSentAsParallelMultipartUpload() throws IOException {
+        // 10 full parts and a smaller last part
+        byte[] content = randomBytes(16 * 1024 * 10 + 123);
+        recordUploads();
+
+        String key = s3Service.uploadFile(new S3File("videos/", file("lecture.mp4", content)), owner);
+
+        assertEquals(0, s3Client.putRequests.get());
+        assertEquals(11, s3Client.partRequests.get());
+        assertTrue(s3Client.uploads.isEmpty());
+        assertTrue(key.startsWith("videos/"));
+        assertArrayEquals(content, s3Client.objects.get(key));
+    }
+
+    @Test
+    void objectIsKeptWhenContentIsReferencedBeforeDelete() {
+        s3Client.objects.put("docs/1-abc.pdf", randomBytes(100));
+        // Last reference released, but an upload of the same content referenced it again before the claim
+        StoredFile released = new StoredFile();
+        released.setRefCount(0);
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(Update.class),
+                        any(FindAndModifyOptions.class), eq(StoredFile.class)))
+                .thenReturn(released);
+
+        s3Service.deleteFile("docs/1-abc.pdf", owner);
+
+        assertTrue(s3Client.objects.containsKey("docs/1-abc.pdf"));
+    }
+
+    @Test
+    void callerWithoutReferenceCannotRelease() {
+        s3Client.objects.put("docs/1-abc.pdf", randomBytes(100));
+        // Entry exists, but the caller is not one of its holders
+        Mockito.when(mongoTemplate.exists(any(Query.class), eq(StoredFile.class))).thenReturn(true, false);
+
+        assertThrows(AccessDeniedException.class, () -> s3Service.deleteFile("docs/1-abc.pdf", new ObjectId()));
+        assertTrue(s3Client.objects.containsKey("docs/1-abc.pdf"));
+    }
+
+    @Test
+    void completingKeyNotPresignedIsRejected() {
+        // Object exists in S3 but no pending entry matches it (another owner's file, or already completed)
+        s3Client.objects.put("docs/1-notes.pdf", randomBytes(100));
+
+        assertThrows(FileAlreadyExistsException.class,
+                () -> s3Service.completeUpload("docs/1-notes.pdf", new ObjectId()));
+        Mockito.verify(mongoTemplate, Mockito.never()).save(any());
+    }
+
+    // Uploads are new content: the entry is inserted with the uploaded object's key
+    private void recordUploads() {
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(Update.class),
+                        any(FindAndModifyOptions.class), eq(StoredFile.class)))
+                .thenAnswer(invocation -> entry(invocation.getArgument(1)));
+    }
+
+    // Entry upserted by a reference update
+    private static StoredFile entry(Update update) {
+        StoredFile file = new StoredFile();
+        file.setKey(update.getUpdateObject().get("$setOnInsert", Document.class).getString("_id"));
+        file.setRefCount(1);
+        file.setStored(true);
+        return file;
+    }
+
+    private List<Query> captureReferences() {
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        Mockito.verify(mongoTemplate, Mockito.atLeastOnce()).findAndModify(queries.capture(), any(Update.class),
+                any(FindAndModifyOptions.class), eq(StoredFile.class));
+        return queries.getAllValues();
+    }
+
+    private static MockMultipartFile file(String name, byte[] content) {
+        return new MockMultipartFile("file", name, "application/octet-stream", content);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
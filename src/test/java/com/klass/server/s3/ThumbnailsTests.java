@@ -0,0 +1,42 @@
+package com.klass.server.s3;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ThumbnailsTests {
+
+    @Test
+    void referencesAreNormalizedToObjectKeys() {
+        assertEquals("cas/abc", Thumbnails.objectKey("cas/abc", "klass"));
+        // Legacy virtual-hosted and path-style object urls
+        assertEquals("docs/1-notes file.pdf",
+                Thumbnails.objectKey("https://klass.s3.us-east-1.amazonaws.com/docs/1-notes%20file.pdf", "klass"));
+        assertEquals("docs/1-notes.pdf", Thumbnails.objectKey("http://localhost:9000/klass/docs/1-notes.pdf", "klass"));
+        // Presigned and CDN urls
+        assertEquals("cas/abc", Thumbnails.objectKey(
+                "https://klass.s3.amazonaws.com/cas/abc?X-Amz-Signature=123&X-Amz-Expires=3600", "klass"));
+        assertEquals("cas/abc", Thumbnails.objectKey("https://cdn.klass.com/cas/abc", "klass"));
+        // Thumbnail urls of this server
+        assertEquals("cas/abc", Thumbnails.objectKey("/api/s3/thumbnails/256/cas/abc", "klass"));
+        assertEquals("cas/abc", Thumbnails.objectKey("https://klass.com/api/s3/thumbnails/64/cas/abc", "klass"));
+    }
+
+    @Test
+    void thumbnailKeysMapToTheirOriginal() {
+        assertEquals("cas/abc", Thumbnails.originalKey(Thumbnails.key("cas/abc", 256)));
+        assertEquals("photo@2x.jpg", Thumbnails.originalKey("photo@2x.jpg"));
+        assertEquals("photo@128.jpg", Thumbnails.originalKey("photo@128.jpg"));
+    }
+
+    @Test
+    void urlsStartWithTheBaseUrl() {
+        ThumbnailUrls thumbnails = Thumbnails.urls("https://klass.s3.amazonaws.com/docs/photo.png");
+
+        assertEquals("https://klass.com/api/s3/thumbnails/64/docs/photo.png",
+                thumbnails.urls("https://klass.com/api").get(64));
+        assertEquals("/api/s3/thumbnails/1024/docs/photo.png", thumbnails.urls("/api").get(1024));
+        assertNull(Thumbnails.urls(" "));
+    }
+}